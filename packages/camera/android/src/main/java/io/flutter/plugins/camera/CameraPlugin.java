@@ -21,6 +21,9 @@ import android.media.Image;
 import android.media.ImageReader;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Size;
 import android.util.SparseIntArray;
@@ -34,9 +37,6 @@ import io.flutter.plugin.common.PluginRegistry;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
 import io.flutter.view.FlutterView;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -66,9 +66,16 @@ public class CameraPlugin implements MethodCallHandler {
   private Registrar registrar;
   // The code to run after requesting the permission.
   private Runnable cameraPermissionContinuation;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Capture callbacks run on this thread, so that they never wait for the platform thread.
+  private final HandlerThread cameraThread = new HandlerThread("CameraBackground");
+  private final Handler cameraHandler;
+  private final JpegWriter jpegWriter = new JpegWriter(mainHandler);
 
   private CameraPlugin(Registrar registrar, FlutterView view, Activity activity) {
     this.registrar = registrar;
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
 
     registrar.addRequestPermissionsResultListener(new CameraRequestPermissionsListener());
     this.view = view;
@@ -113,7 +120,15 @@ public class CameraPlugin implements MethodCallHandler {
               public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
 
               @Override
-              public void onActivityDestroyed(Activity activity) {}
+              public void onActivityDestroyed(Activity activity) {
+                if (activity == CameraPlugin.this.activity) {
+                  disposeAllCams();
+                  // Pending captures still finish before the threads stop.
+                  cameraThread.quitSafely();
+                  jpegWriter.close();
+                  activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+                }
+              }
             });
   }
 
@@ -227,6 +242,36 @@ public class CameraPlugin implements MethodCallHandler {
           cam.capture((String) call.argument("path"), result);
           break;
         }
+      case "startImageStream":
+        {
+          Cam cam = getCamOfCall(call);
+          if (cam == null) {
+            result.error("cameraNotFound", "No camera with the given texture id", null);
+            break;
+          }
+          cam.startImageStream(result);
+          break;
+        }
+      case "releaseImageStreamFrame":
+        {
+          Cam cam = getCamOfCall(call);
+          if (cam != null) {
+            cam.releaseImageStreamFrame();
+          }
+          result.success(null);
+          break;
+        }
+      case "stopImageStream":
+        {
+          Cam cam = getCamOfCall(call);
+          if (cam == null) {
+            // Already disposed, so there is no stream to stop.
+            result.success(null);
+            break;
+          }
+          cam.stopImageStream(result);
+          break;
+        }
       case "stop":
         {
           Cam cam = getCamOfCall(call);
@@ -278,6 +323,8 @@ public class CameraPlugin implements MethodCallHandler {
     private CameraCaptureSession cameraCaptureSession;
     private EventChannel.EventSink eventSink;
     private ImageReader imageReader;
+    // Set while frames are streamed to Dart.
+    private ImageStream imageStream;
     private boolean started = false;
     private int sensorOrientation;
     private boolean facingFront;
@@ -380,18 +427,11 @@ public class CameraPlugin implements MethodCallHandler {
                 @Override
                 public void onOpened(@NonNull CameraDevice cameraDevice) {
                   Cam.this.cameraDevice = cameraDevice;
-                  List<Surface> surfaceList = new ArrayList<>();
-                  surfaceList.add(previewSurface);
-                  surfaceList.add(imageReader.getSurface());
-
                   try {
-                    cameraDevice.createCaptureSession(
-                        surfaceList,
-                        new CameraCaptureSession.StateCallback() {
+                    createCaptureSession(
+                        new Runnable() {
                           @Override
-                          public void onConfigured(
-                              @NonNull CameraCaptureSession cameraCaptureSession) {
-                            Cam.this.cameraCaptureSession = cameraCaptureSession;
+                          public void run() {
                             initialized = true;
                             Map<String, Object> reply = new HashMap<>();
                             reply.put("textureId", textureEntry.id());
@@ -399,15 +439,8 @@ public class CameraPlugin implements MethodCallHandler {
                             reply.put("previewHeight", previewSize.getHeight());
                             result.success(reply);
                           }
-
-                          @Override
-                          public void onConfigureFailed(
-                              @NonNull CameraCaptureSession cameraCaptureSession) {
-                            result.error(
-                                "configureFailed", "Failed to configure camera session", null);
-                          }
                         },
-                        null);
+                        result);
                   } catch (CameraAccessException e) {
                     result.error("cameraAccess", e.getMessage(), null);
                   }
@@ -461,6 +494,99 @@ public class CameraPlugin implements MethodCallHandler {
       }
     }
 
+    /**
+     * Creates a capture session for the preview, the still captures and the image stream if any,
+     * and runs {@code onConfigured} once it is ready.
+     */
+    private void createCaptureSession(final Runnable onConfigured, final Result result)
+        throws CameraAccessException {
+      List<Surface> surfaceList = new ArrayList<>();
+      surfaceList.add(previewSurface);
+      surfaceList.add(imageReader.getSurface());
+      if (imageStream != null) {
+        surfaceList.add(imageStream.getSurface());
+      }
+      cameraDevice.createCaptureSession(
+          surfaceList,
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+              Cam.this.cameraCaptureSession = cameraCaptureSession;
+              onConfigured.run();
+            }
+
+            @Override
+            public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+              result.error("configureFailed", "Failed to configure camera session", null);
+            }
+          },
+          null);
+    }
+
+    /** Replaces the capture session after the image stream has been added or removed. */
+    private void recreateCaptureSession(final Result result) {
+      if (cameraCaptureSession != null) {
+        cameraCaptureSession.close();
+        cameraCaptureSession = null;
+      }
+      if (cameraDevice == null) {
+        // Paused; the session is created again on resume.
+        result.success(null);
+        return;
+      }
+      try {
+        createCaptureSession(
+            new Runnable() {
+              @Override
+              public void run() {
+                if (started) {
+                  start();
+                }
+                result.success(null);
+              }
+            },
+            result);
+      } catch (CameraAccessException e) {
+        result.error("cameraAccess", e.getMessage(), null);
+      }
+    }
+
+    void startImageStream(Result result) {
+      if (imageStream != null) {
+        result.error("imageStreamStarted", "The image stream has already been started", null);
+        return;
+      }
+      imageStream =
+          new ImageStream(
+              registrar.messenger(),
+              "flutter.io/cameraPlugin/imageStream" + textureEntry.id(),
+              previewSize,
+              cameraHandler,
+              mainHandler);
+      recreateCaptureSession(result);
+    }
+
+    void releaseImageStreamFrame() {
+      if (imageStream != null) {
+        imageStream.releaseFrame();
+      }
+    }
+
+    void stopImageStream(Result result) {
+      if (imageStream == null) {
+        result.success(null);
+        return;
+      }
+      // The reader is only closed once the session that writes to it is.
+      if (cameraCaptureSession != null) {
+        cameraCaptureSession.close();
+        cameraCaptureSession = null;
+      }
+      imageStream.close();
+      imageStream = null;
+      recreateCaptureSession(result);
+    }
+
     void start() {
       if (!initialized) {
         return;
@@ -471,6 +597,9 @@ public class CameraPlugin implements MethodCallHandler {
         previewRequestBuilder.set(
             CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
         previewRequestBuilder.addTarget(previewSurface);
+        if (imageStream != null) {
+          previewRequestBuilder.addTarget(imageStream.getSurface());
+        }
         CaptureRequest previewRequest = previewRequestBuilder.build();
         cameraCaptureSession.setRepeatingRequest(
             previewRequest,
@@ -482,12 +611,18 @@ public class CameraPlugin implements MethodCallHandler {
                   @NonNull Surface target,
                   long frameNumber) {
                 super.onCaptureBufferLost(session, request, target, frameNumber);
-                if (eventSink != null) {
-                  eventSink.success("lost buffer");
-                }
+                mainHandler.post(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        if (eventSink != null) {
+                          eventSink.success("lost buffer");
+                        }
+                      }
+                    });
               }
             },
-            null);
+            cameraHandler);
       } catch (CameraAccessException exception) {
         Map<String, String> event = new HashMap<>();
         event.put("eventType", "error");
@@ -542,36 +677,39 @@ public class CameraPlugin implements MethodCallHandler {
           });
     }
 
-    private void writeToFile(ByteBuffer buffer, File file) throws IOException {
-      try (FileOutputStream outputStream = new FileOutputStream(file)) {
-        while (0 < buffer.remaining()) {
-          outputStream.getChannel().write(buffer);
-        }
-      }
-    }
-
     void capture(String path, final Result result) {
       final File file = new File(path);
       imageReader.setOnImageAvailableListener(
           new ImageReader.OnImageAvailableListener() {
             @Override
             public void onImageAvailable(ImageReader reader) {
-              boolean success = false;
-              try (Image image = reader.acquireLatestImage()) {
-                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                writeToFile(buffer, file);
-                success = true;
-                result.success(null);
-              } catch (IOException e) {
-                // Theoretically image.close() could throw, so only report the error
-                // if we have not successfully written the file.
-                if (!success) {
-                  result.error("IOError", "Failed saving image", null);
-                }
+              Image image;
+              try {
+                image = reader.acquireLatestImage();
+              } catch (IllegalStateException e) {
+                // The camera was disposed and the reader closed.
+                image = null;
+              }
+              if (image == null) {
+                mainHandler.post(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        result.error("IOError", "No image was captured", null);
+                      }
+                    });
+                return;
+              }
+              // Closed as soon as its bytes are copied, while the file is written in the
+              // background.
+              try {
+                jpegWriter.write(image, file, result);
+              } finally {
+                image.close();
               }
             }
           },
-          null);
+          cameraHandler);
 
       try {
         final CaptureRequest.Builder captureBuilder =
@@ -603,10 +741,17 @@ public class CameraPlugin implements MethodCallHandler {
                   default:
                     reason = "Unknown reason";
                 }
-                result.error("captureFailure", reason, null);
+                final String description = reason;
+                mainHandler.post(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        result.error("captureFailure", description, null);
+                      }
+                    });
               }
             },
-            null);
+            cameraHandler);
       } catch (CameraAccessException e) {
         result.error("cameraAccess", e.getMessage(), null);
       }
@@ -637,6 +782,27 @@ public class CameraPlugin implements MethodCallHandler {
         cameraDevice.close();
         cameraDevice = null;
       }
+      if (imageReader != null) {
+        // Closing the reader closes its images, so it is closed on the thread where the capture
+        // listener copies them.
+        final ImageReader reader = imageReader;
+        boolean posted =
+            cameraHandler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    reader.close();
+                  }
+                });
+        if (!posted) {
+          reader.close();
+        }
+        imageReader = null;
+      }
+      if (imageStream != null) {
+        imageStream.close();
+        imageStream = null;
+      }
       textureEntry.release();
     }
   }
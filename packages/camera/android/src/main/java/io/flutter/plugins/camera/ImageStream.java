@@ -0,0 +1,219 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.camera;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.util.Size;
+import android.view.Surface;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Streams the frames of a {@code YUV_420_888} {@link ImageReader} to Dart over an event channel.
+ *
+ * <p>Each frame is sent as a map with its {@code width}, {@code height} and {@code format}, and
+ * under {@code planes}, the {@code bytes}, {@code bytesPerRow} and {@code bytesPerPixel} of each
+ * plane. The frames are encoded in the {@link io.flutter.plugin.common.StandardMethodCodec} format
+ * straight into a direct buffer that is reused from frame to frame, so that the planes are copied
+ * once and nothing is allocated for them.
+ *
+ * <p>Frames that arrive before Dart has released the previous one with {@link #releaseFrame()}
+ * are dropped, so that a slow listener gets the latest frame instead of a growing backlog.
+ *
+ * <p>Frames are acquired and copied on the camera thread, and only sent on the platform thread.
+ * The other methods are called on the platform thread.
+ */
+final class ImageStream
+    implements ImageReader.OnImageAvailableListener, EventChannel.StreamHandler {
+  private static final Charset UTF8 = Charset.forName("UTF8");
+
+  private static final byte INT = 3;
+  private static final byte STRING = 7;
+  private static final byte BYTE_ARRAY = 8;
+  private static final byte LIST = 12;
+  private static final byte MAP = 13;
+
+  private static final byte[] WIDTH = "width".getBytes(UTF8);
+  private static final byte[] HEIGHT = "height".getBytes(UTF8);
+  private static final byte[] FORMAT = "format".getBytes(UTF8);
+  private static final byte[] PLANES = "planes".getBytes(UTF8);
+  private static final byte[] BYTES = "bytes".getBytes(UTF8);
+  private static final byte[] BYTES_PER_ROW = "bytesPerRow".getBytes(UTF8);
+  private static final byte[] BYTES_PER_PIXEL = "bytesPerPixel".getBytes(UTF8);
+
+  // Room for everything but the plane bytes: the envelope, the keys, the ints and the sizes.
+  private static final int FRAME_OVERHEAD = 64;
+  private static final int PLANE_OVERHEAD = 64;
+
+  private final BinaryMessenger messenger;
+  private final String channelName;
+  private final EventChannel eventChannel;
+  private final ImageReader imageReader;
+  private final Handler cameraHandler;
+  private final Handler mainHandler;
+  // Only used on the camera thread.
+  private ByteBuffer buffer;
+  private volatile boolean listening = false;
+  // Set on the camera thread when a frame is encoded, so that the buffer is not reused before
+  // Dart releases the frame.
+  private volatile boolean frameInFlight = false;
+
+  ImageStream(
+      BinaryMessenger messenger,
+      String channelName,
+      Size size,
+      Handler cameraHandler,
+      Handler mainHandler) {
+    this.messenger = messenger;
+    this.channelName = channelName;
+    this.cameraHandler = cameraHandler;
+    this.mainHandler = mainHandler;
+    imageReader =
+        ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, 2);
+    imageReader.setOnImageAvailableListener(this, cameraHandler);
+    eventChannel = new EventChannel(messenger, channelName);
+    eventChannel.setStreamHandler(this);
+  }
+
+  Surface getSurface() {
+    return imageReader.getSurface();
+  }
+
+  /** Lets the next frame be sent, once Dart is done with the previous one. */
+  void releaseFrame() {
+    frameInFlight = false;
+  }
+
+  void close() {
+    listening = false;
+    eventChannel.setStreamHandler(null);
+    // Closing the reader closes its images, so it is closed on the thread where they are copied.
+    boolean posted =
+        cameraHandler.post(
+            new Runnable() {
+              @Override
+              public void run() {
+                imageReader.close();
+              }
+            });
+    if (!posted) {
+      imageReader.close();
+    }
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink eventSink) {
+    listening = true;
+    frameInFlight = false;
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    listening = false;
+  }
+
+  @Override
+  public void onImageAvailable(ImageReader reader) {
+    Image image;
+    try {
+      image = reader.acquireLatestImage();
+    } catch (IllegalStateException e) {
+      // The stream was closed.
+      return;
+    }
+    if (image == null) {
+      return;
+    }
+    try {
+      if (!listening || frameInFlight) {
+        return;
+      }
+      encode(image);
+      frameInFlight = true;
+    } finally {
+      // Closed right away, so that the reader always has a free image for the camera.
+      image.close();
+    }
+    final ByteBuffer frame = buffer;
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!listening) {
+              frameInFlight = false;
+              return;
+            }
+            messenger.send(channelName, frame);
+          }
+        });
+  }
+
+  /** Encodes the success envelope of an event with the frame of {@code image}. */
+  private void encode(Image image) {
+    Image.Plane[] planes = image.getPlanes();
+    int capacity = FRAME_OVERHEAD;
+    for (Image.Plane plane : planes) {
+      capacity += PLANE_OVERHEAD + plane.getBuffer().remaining();
+    }
+    if (buffer == null || buffer.capacity() < capacity) {
+      buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    buffer.clear();
+    buffer.put((byte) 0);
+    buffer.put(MAP);
+    writeSize(4);
+    writeKey(WIDTH);
+    writeInt(image.getWidth());
+    writeKey(HEIGHT);
+    writeInt(image.getHeight());
+    writeKey(FORMAT);
+    writeInt(image.getFormat());
+    writeKey(PLANES);
+    buffer.put(LIST);
+    writeSize(planes.length);
+    for (Image.Plane plane : planes) {
+      ByteBuffer bytes = plane.getBuffer();
+      buffer.put(MAP);
+      writeSize(3);
+      writeKey(BYTES);
+      buffer.put(BYTE_ARRAY);
+      writeSize(bytes.remaining());
+      buffer.put(bytes);
+      writeKey(BYTES_PER_ROW);
+      writeInt(plane.getRowStride());
+      writeKey(BYTES_PER_PIXEL);
+      writeInt(plane.getPixelStride());
+    }
+  }
+
+  private void writeKey(byte[] key) {
+    buffer.put(STRING);
+    writeSize(key.length);
+    buffer.put(key);
+  }
+
+  private void writeInt(int value) {
+    buffer.put(INT);
+    buffer.putInt(value);
+  }
+
+  private void writeSize(int value) {
+    if (value < 254) {
+      buffer.put((byte) value);
+    } else if (value <= 0xffff) {
+      buffer.put((byte) 254);
+      buffer.putChar((char) value);
+    } else {
+      buffer.put((byte) 255);
+      buffer.putInt(value);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.camera;
+
+import android.media.Image;
+import android.os.Handler;
+import android.os.HandlerThread;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Writes captured JPEG images to files on a thread of its own.
+ *
+ * <p>The bytes of an image are first copied into a pooled direct buffer, so that the caller can
+ * close the {@link Image} right away and the {@link android.media.ImageReader} is free for the
+ * next capture while the file is still being written. Results are reported on the platform
+ * thread.
+ */
+final class JpegWriter {
+  // Enough for the captures of a short burst; captures of one camera all have the same size.
+  private static final int MAX_POOLED_BUFFERS = 2;
+
+  private final HandlerThread writerThread = new HandlerThread("CameraJpegWriter");
+  private final Handler writerHandler;
+  private final Handler mainHandler;
+  // Guarded by itself.
+  private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+
+  JpegWriter(Handler mainHandler) {
+    this.mainHandler = mainHandler;
+    writerThread.start();
+    writerHandler = new Handler(writerThread.getLooper());
+  }
+
+  /**
+   * Copies the JPEG bytes of {@code image} and writes them to {@code file} in the background,
+   * then replies to {@code result}. The image can be closed as soon as this returns.
+   */
+  void write(Image image, final File file, final Result result) {
+    ByteBuffer source = image.getPlanes()[0].getBuffer();
+    final ByteBuffer bytes = acquire(source.remaining());
+    bytes.put(source);
+    bytes.flip();
+    boolean posted =
+        writerHandler.post(
+            new Runnable() {
+              @Override
+              public void run() {
+                reply(writeToFile(bytes, file), result);
+                release(bytes);
+              }
+            });
+    if (!posted) {
+      // The writer was closed.
+      release(bytes);
+      reply(false, result);
+    }
+  }
+
+  /** Stops the writer thread once the writes already posted are done. */
+  void close() {
+    writerThread.quitSafely();
+  }
+
+  private void reply(final boolean success, final Result result) {
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (success) {
+              result.success(null);
+            } else {
+              result.error("IOError", "Failed saving image", null);
+            }
+          }
+        });
+  }
+
+  private static boolean writeToFile(ByteBuffer buffer, File file) {
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      FileChannel channel = outputStream.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private ByteBuffer acquire(int size) {
+    synchronized (pool) {
+      Iterator<ByteBuffer> buffers = pool.iterator();
+      while (buffers.hasNext()) {
+        ByteBuffer buffer = buffers.next();
+        if (buffer.capacity() >= size) {
+          buffers.remove();
+          buffer.clear();
+          return buffer;
+        }
+      }
+    }
+    return ByteBuffer.allocateDirect(size);
+  }
+
+  private void release(ByteBuffer buffer) {
+    synchronized (pool) {
+      if (pool.size() < MAX_POOLED_BUFFERS) {
+        pool.add(buffer);
+      }
+    }
+  }
+}
@@ -1,4 +1,5 @@
 import 'dart:async';
+import 'dart:typed_data';
 
 import 'package:flutter/widgets.dart';
 import 'package:flutter/services.dart';
@@ -74,6 +75,52 @@ class CameraDescription {
   }
 }
 
+/// A plane of a [CameraImage].
+class Plane {
+  Plane._fromPlatformData(Map<dynamic, dynamic> data)
+      : bytes = data['bytes'],
+        bytesPerRow = data['bytesPerRow'],
+        bytesPerPixel = data['bytesPerPixel'];
+
+  /// The bytes of the plane.
+  ///
+  /// They are a copy that belongs to Dart, so they can be kept after the
+  /// callback that received the image completes.
+  final Uint8List bytes;
+
+  /// The distance in bytes between the starts of two rows of the plane.
+  final int bytesPerRow;
+
+  /// The distance in bytes between two pixels of a row of the plane.
+  final int bytesPerPixel;
+}
+
+/// A frame of the image stream of a [CameraController].
+///
+/// The frames are in the `YUV_420_888` format of Android, with the Y, U and V
+/// planes in that order.
+class CameraImage {
+  CameraImage._fromPlatformData(Map<dynamic, dynamic> data)
+      : width = data['width'],
+        height = data['height'],
+        format = data['format'],
+        planes = new List<Plane>.unmodifiable(data['planes']
+            .map((dynamic plane) => new Plane._fromPlatformData(plane)));
+
+  final int width;
+  final int height;
+
+  /// The `android.graphics.ImageFormat` of the image.
+  final int format;
+
+  final List<Plane> planes;
+}
+
+/// Called with each frame of an image stream.
+///
+/// The next frame is only sent once the returned future, if any, completes.
+typedef FutureOr<dynamic> ImageAvailableCallback(CameraImage image);
+
 class CameraException implements Exception {
   String code;
   String description;
@@ -161,6 +208,7 @@ class CameraController extends ValueNotifier<CameraValue> {
   int _textureId;
   bool _disposed = false;
   StreamSubscription<dynamic> _eventSubscription;
+  StreamSubscription<dynamic> _imageStreamSubscription;
   Completer<Null> _creatingCompleter;
 
   CameraController(this.description, this.resolutionPreset)
@@ -235,6 +283,69 @@ class CameraController extends ValueNotifier<CameraValue> {
     }
   }
 
+  /// Starts calling [onAvailable] with the frames of the camera, at the size
+  /// of the preview.
+  ///
+  /// Frames that arrive while [onAvailable] is still busy with the previous
+  /// one are dropped. Only supported on Android.
+  ///
+  /// Throws a [CameraException] if the stream cannot be started.
+  Future<Null> startImageStream(ImageAvailableCallback onAvailable) async {
+    if (!value.initialized || _disposed) {
+      throw new CameraException(
+        'Uninitialized startImageStream()',
+        'startImageStream() was called on uninitialized CameraController',
+      );
+    }
+    if (_imageStreamSubscription != null) {
+      throw new CameraException(
+        'imageStreamStarted',
+        'startImageStream() was called while the image stream was started',
+      );
+    }
+    try {
+      await _channel.invokeMethod(
+        'startImageStream',
+        <String, dynamic>{'textureId': _textureId},
+      );
+    } on PlatformException catch (e) {
+      throw new CameraException(e.code, e.message);
+    }
+    // Listened to once the platform side of the channel exists.
+    _imageStreamSubscription =
+        new EventChannel('flutter.io/cameraPlugin/imageStream$_textureId')
+            .receiveBroadcastStream()
+            .listen((dynamic data) async {
+      try {
+        await onAvailable(new CameraImage._fromPlatformData(data));
+      } finally {
+        if (!_disposed) {
+          _channel.invokeMethod(
+            'releaseImageStreamFrame',
+            <String, dynamic>{'textureId': _textureId},
+          );
+        }
+      }
+    });
+  }
+
+  /// Stops the image stream started by [startImageStream].
+  Future<Null> stopImageStream() async {
+    if (_imageStreamSubscription == null || _disposed) {
+      return;
+    }
+    await _imageStreamSubscription.cancel();
+    _imageStreamSubscription = null;
+    try {
+      await _channel.invokeMethod(
+        'stopImageStream',
+        <String, dynamic>{'textureId': _textureId},
+      );
+    } on PlatformException catch (e) {
+      throw new CameraException(e.code, e.message);
+    }
+  }
+
   void _applyStartStop() {
     if (value.initialized && !_disposed) {
       if (value.isStarted) {
@@ -282,6 +393,7 @@ class CameraController extends ValueNotifier<CameraValue> {
     } else {
       return _creatingCompleter.future.then((_) async {
         await _eventSubscription?.cancel();
+        await _imageStreamSubscription?.cancel();
         await _channel.invokeMethod(
           'dispose',
           <String, dynamic>{'textureId': _textureId},
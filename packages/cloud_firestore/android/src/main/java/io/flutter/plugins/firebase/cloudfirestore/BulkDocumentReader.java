@@ -0,0 +1,129 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads many documents concurrently, with at most a given number of reads in flight, and
+ * combines the results into one list.
+ */
+final class BulkDocumentReader {
+  private final FirebaseFirestore firestore;
+  private final List<String> paths;
+  private final Executor executor;
+  private final List<TaskCompletionSource<DocumentSnapshot>> reads;
+  private int nextRead = 0;
+
+  private BulkDocumentReader(FirebaseFirestore firestore, List<String> paths, Executor executor) {
+    this.firestore = firestore;
+    this.paths = paths;
+    this.executor = executor;
+    this.reads = new ArrayList<>(paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      reads.add(new TaskCompletionSource<DocumentSnapshot>());
+    }
+  }
+
+  /**
+   * Reads the documents at {@code paths}.
+   *
+   * <p>The result has one map per path, in order, with the {@code path} and either the document
+   * {@code data} (null if the document does not exist) or an {@code error} message. Results are
+   * built on {@code executor}.
+   */
+  static Task<List<Map<String, Object>>> getAll(
+      FirebaseFirestore firestore, List<String> paths, int maxConcurrentReads, Executor executor) {
+    final BulkDocumentReader reader = new BulkDocumentReader(firestore, paths, executor);
+    for (int i = 0; i < Math.min(maxConcurrentReads, paths.size()); i++) {
+      reader.startNextRead();
+    }
+    return Tasks.whenAllComplete(reader.tasks())
+        .continueWith(
+            executor,
+            new Continuation<List<Task<?>>, List<Map<String, Object>>>() {
+              @Override
+              public List<Map<String, Object>> then(Task<List<Task<?>>> task) {
+                return reader.results();
+              }
+            });
+  }
+
+  private List<Task<DocumentSnapshot>> tasks() {
+    List<Task<DocumentSnapshot>> tasks = new ArrayList<>(reads.size());
+    for (TaskCompletionSource<DocumentSnapshot> read : reads) {
+      tasks.add(read.getTask());
+    }
+    return tasks;
+  }
+
+  /**
+   * Starts the next pending read; each completed read starts the one after it.
+   *
+   * <p>Reads of invalid paths fail right away with the exception of {@link
+   * FirebaseFirestore#document}, and the read after them is started instead.
+   */
+  private void startNextRead() {
+    int index;
+    DocumentReference reference;
+    while (true) {
+      synchronized (this) {
+        if (nextRead == paths.size()) return;
+        index = nextRead++;
+      }
+      try {
+        reference = firestore.document(paths.get(index));
+        break;
+      } catch (IllegalArgumentException e) {
+        reads.get(index).setException(e);
+      }
+    }
+    final int startedIndex = index;
+    reference
+        .get()
+        .addOnCompleteListener(
+            executor,
+            new OnCompleteListener<DocumentSnapshot>() {
+              @Override
+              public void onComplete(Task<DocumentSnapshot> task) {
+                if (task.isSuccessful()) {
+                  reads.get(startedIndex).setResult(task.getResult());
+                } else {
+                  reads.get(startedIndex).setException(task.getException());
+                }
+                startNextRead();
+              }
+            });
+  }
+
+  private List<Map<String, Object>> results() {
+    List<Map<String, Object>> results = new ArrayList<>(reads.size());
+    for (int i = 0; i < reads.size(); i++) {
+      Task<DocumentSnapshot> read = reads.get(i).getTask();
+      Map<String, Object> result = new HashMap<>();
+      result.put("path", paths.get(i));
+      if (read.isSuccessful()) {
+        DocumentSnapshot documentSnapshot = read.getResult();
+        result.put("data", documentSnapshot.exists() ? documentSnapshot.getData() : null);
+      } else {
+        result.put("error", read.getException().getMessage());
+      }
+      results.add(result);
+    }
+    return results;
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of little endian direct {@link ByteBuffer}s with power of two capacities.
+ *
+ * <p>Buffers larger than {@link #MAX_POOLED_CAPACITY} are handed out but never retained, so a
+ * single huge message does not pin its buffer for the lifetime of the process.
+ */
+final class ByteBufferPool {
+  static final int MIN_CAPACITY = 1 << 12;
+  static final int MAX_POOLED_CAPACITY = 1 << 22;
+  private static final int MAX_BUFFERS_PER_BUCKET = 4;
+
+  private final ArrayDeque<ByteBuffer>[] buckets;
+
+  @SuppressWarnings("unchecked")
+  ByteBufferPool() {
+    int bucketCount = bucketIndex(MAX_POOLED_CAPACITY) + 1;
+    buckets = new ArrayDeque[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      buckets[i] = new ArrayDeque<>();
+    }
+  }
+
+  /** Returns a cleared buffer with at least {@code minCapacity} bytes of capacity. */
+  ByteBuffer acquire(int minCapacity) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < minCapacity && capacity > 0) {
+      capacity <<= 1;
+    }
+    if (capacity <= 0) {
+      capacity = minCapacity;
+    }
+    if (capacity <= MAX_POOLED_CAPACITY) {
+      ArrayDeque<ByteBuffer> bucket = buckets[bucketIndex(capacity)];
+      synchronized (bucket) {
+        ByteBuffer buffer = bucket.poll();
+        if (buffer != null) {
+          buffer.clear();
+          return buffer;
+        }
+      }
+    }
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Returns {@code buffer} to the pool. The caller must not use it afterwards. */
+  void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (capacity < MIN_CAPACITY
+        || capacity > MAX_POOLED_CAPACITY
+        || Integer.bitCount(capacity) != 1) {
+      return;
+    }
+    ArrayDeque<ByteBuffer> bucket = buckets[bucketIndex(capacity)];
+    synchronized (bucket) {
+      if (bucket.size() < MAX_BUFFERS_PER_BUCKET) {
+        bucket.add(buffer);
+      }
+    }
+  }
+
+  private static int bucketIndex(int capacity) {
+    return Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+  }
+}
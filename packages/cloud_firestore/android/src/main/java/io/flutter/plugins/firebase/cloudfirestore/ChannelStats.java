@@ -0,0 +1,115 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the traffic on the plugin's method channel, by method name and by listener handle.
+ *
+ * <p>Recording never takes a lock, so it can be done from the platform thread and from the
+ * encoding threads alike.
+ */
+final class ChannelStats {
+  /** The messages of one method or listener, their encoded size and how long they took. */
+  private static final class Counters {
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    void record(int size, long latencyNanos) {
+      messages.incrementAndGet();
+      bytes.addAndGet(size);
+      latency.recordNanos(latencyNanos);
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new HashMap<>();
+      map.put("messages", messages.get());
+      map.put("bytes", bytes.get());
+      map.put("latency", latency.toMap());
+      return map;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Counters> methods = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, Counters> listeners = new ConcurrentHashMap<>();
+  private final LatencyHistogram parseQuerySnapshot = new LatencyHistogram();
+
+  /**
+   * Records a call from Dart, with the encoded size of the call and its result, and the time from
+   * receiving the call to sending the result.
+   */
+  void recordCall(String method, int size, long latencyNanos) {
+    getCounters(methods, method).record(size, latencyNanos);
+  }
+
+  /** Starts counting the snapshots sent to a listener that has just been added. */
+  void addListener(int handle) {
+    listeners.put(handle, new Counters());
+  }
+
+  /**
+   * Records a snapshot sent to a listener, with its encoded size and the time taken to convert and
+   * encode it.
+   *
+   * <p>Snapshots sent to a listener after it has been removed are not recorded, so that its
+   * counters are not brought back.
+   */
+  void recordListenerEvent(int handle, int size, long latencyNanos) {
+    Counters counters = listeners.get(handle);
+    if (counters != null) {
+      counters.record(size, latencyNanos);
+    }
+  }
+
+  /** Records the time spent converting one query snapshot into the maps sent to Dart. */
+  void recordParseQuerySnapshot(long nanos) {
+    parseQuerySnapshot.recordNanos(nanos);
+  }
+
+  /** Forgets the counters of a listener that has been removed. */
+  void removeListener(int handle) {
+    listeners.remove(handle);
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> methodStats = new HashMap<>();
+    for (Map.Entry<String, Counters> entry : methods.entrySet()) {
+      methodStats.put(entry.getKey(), entry.getValue().toMap());
+    }
+    Map<Integer, Object> listenerStats = new HashMap<>();
+    for (Map.Entry<Integer, Counters> entry : listeners.entrySet()) {
+      listenerStats.put(entry.getKey(), entry.getValue().toMap());
+    }
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("methods", methodStats);
+    stats.put("listeners", listenerStats);
+    stats.put("parseQuerySnapshot", parseQuerySnapshot.toMap());
+    return stats;
+  }
+
+  void reset() {
+    methods.clear();
+    // The listeners that are still registered keep being counted, from zero.
+    for (Integer handle : listeners.keySet()) {
+      listeners.replace(handle, new Counters());
+    }
+    parseQuerySnapshot.reset();
+  }
+
+  private static <K> Counters getCounters(ConcurrentHashMap<K, Counters> counters, K key) {
+    Counters existing = counters.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    Counters created = new Counters();
+    existing = counters.putIfAbsent(key, created);
+    return existing != null ? existing : created;
+  }
+}
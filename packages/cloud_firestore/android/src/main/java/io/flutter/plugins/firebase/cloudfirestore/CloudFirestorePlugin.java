@@ -4,14 +4,13 @@
 
 package io.flutter.plugins.firebase.cloudfirestore;
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.SparseArray;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.firestore.Blob;
@@ -22,13 +21,16 @@ import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.GeoPoint;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.SetOptions;
-import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.Source;
 import com.google.firebase.firestore.WriteBatch;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -40,38 +42,101 @@ import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class CloudFirestorePlugin implements MethodCallHandler {
 
   public static final String TAG = "CloudFirestorePlugin";
+  private static final String CHANNEL_NAME = "plugins.flutter.io/cloud_firestore";
+  // Each Query#getDocumentPages call streams over its own channel, named after its handle.
+  private static final String PAGES_CHANNEL_PREFIX = CHANNEL_NAME + "/pages/";
+  private static final int DEFAULT_PAGE_SIZE = 500;
+  // Firestore rejects batches with more writes than this.
+  private static final int MAX_WRITES_PER_BATCH = 500;
+  // Built queries that are kept for reuse by later calls with the same arguments.
+  private static final int MAX_CACHED_QUERIES = 100;
+  // Reads that Firestore#getAll keeps in flight unless the caller asks for another limit.
+  private static final int DEFAULT_MAX_CONCURRENT_READS = 20;
+  private static final StandardMethodCodec METHOD_CODEC =
+      new StandardMethodCodec(FirestoreMessageCodec.INSTANCE);
+  // Snapshots are converted and encoded off the platform thread, on at most this many threads.
+  private static final int ENCODING_THREADS =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
   private final MethodChannel channel;
+  private final BinaryMessenger messenger;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ThreadPoolExecutor encodingExecutor;
+  private final TransactionEngine transactionEngine;
 
-  // Handles are ints used as indexes into the sparse array of active observers
-  private int nextListenerHandle = 0;
-  private int nextBatchHandle = 0;
-  private final SparseArray<EventObserver> observers = new SparseArray<>();
-  private final SparseArray<DocumentObserver> documentObservers = new SparseArray<>();
-  private final SparseArray<ListenerRegistration> listenerRegistrations = new SparseArray<>();
-  private final SparseArray<WriteBatch> batches = new SparseArray<>();
-  private final SparseArray<Transaction> transactions = new SparseArray<>();
-  private final SparseArray<TaskCompletionSource> completionTasks = new SparseArray<>();
+  // Listeners and write batches that the Dart side refers to by handle.
+  private final HandleRegistry handles = new HandleRegistry();
+  private final QueryCache queryCache =
+      new QueryCache(
+          MAX_CACHED_QUERIES,
+          new QueryCache.Builder() {
+            @Override
+            public Query build(Map<String, Object> arguments) {
+              return buildQuery(arguments);
+            }
+          });
+  // Query observers by the QueryKey of their arguments.
+  private final Map<String, EventObserver> sharedQueryObservers = new HashMap<>();
+  // Snapshots that throttled listeners held back.
+  private final EventThrottle.Counters throttleCounters = new EventThrottle.Counters();
+  private final ChannelStats stats = new ChannelStats();
 
   public static void registerWith(PluginRegistry.Registrar registrar) {
-    final MethodChannel channel =
-        new MethodChannel(
-            registrar.messenger(),
-            "plugins.flutter.io/cloud_firestore",
-            new StandardMethodCodec(FirestoreMessageCodec.INSTANCE));
-    channel.setMethodCallHandler(new CloudFirestorePlugin(channel));
+    final BinaryMessenger messenger = registrar.messenger();
+    final MethodChannel channel = new MethodChannel(messenger, CHANNEL_NAME, METHOD_CODEC);
+    final CloudFirestorePlugin plugin = new CloudFirestorePlugin(channel, messenger);
+    // Set on the messenger rather than the channel, so that the size of each call can be measured.
+    messenger.setMessageHandler(
+        CHANNEL_NAME, new InstrumentedMethodHandler(plugin, METHOD_CODEC, plugin.stats));
   }
 
-  private CloudFirestorePlugin(MethodChannel channel) {
+  private CloudFirestorePlugin(MethodChannel channel, BinaryMessenger messenger) {
     this.channel = channel;
+    this.messenger = messenger;
+    this.encodingExecutor =
+        new ThreadPoolExecutor(
+            ENCODING_THREADS,
+            ENCODING_THREADS,
+            1,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    encodingExecutor.allowCoreThreadTimeOut(true);
+    this.transactionEngine = new TransactionEngine(channel, mainHandler);
+  }
+
+  /**
+   * Encodes a call to {@code method} on the calling (background) thread and posts only the encoded
+   * message to the platform thread.
+   *
+   * @param sizeHint the expected size of the message, e.g. the size of the previous one.
+   * @return the size of the encoded message.
+   */
+  private int invokeMethodFromBackground(String method, Object arguments, int sizeHint) {
+    final ByteBuffer message = DirectMessageEncoder.encodeMethodCall(method, arguments, sizeHint);
+    int size = message.position();
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            // The message is copied by the engine, so the buffer can be reused afterwards.
+            messenger.send(CHANNEL_NAME, message);
+            DirectMessageEncoder.release(message);
+          }
+        });
+    return size;
   }
 
   private FirebaseFirestore getFirestore(Map<String, Object> arguments) {
@@ -79,6 +144,17 @@ public class CloudFirestorePlugin implements MethodCallHandler {
     return FirebaseFirestore.getInstance(FirebaseApp.getInstance(appName));
   }
 
+  /** Returns where a read should get its data from, by default from the server if online. */
+  private static Source getSource(Map<String, Object> arguments) {
+    String source = (String) arguments.get("source");
+    if ("server".equals(source)) {
+      return Source.SERVER;
+    } else if ("cache".equals(source)) {
+      return Source.CACHE;
+    }
+    return Source.DEFAULT;
+  }
+
   private CollectionReference getCollectionReference(Map<String, Object> arguments) {
     String path = (String) arguments.get("path");
     return getFirestore(arguments).collection(path);
@@ -89,18 +165,78 @@ public class CloudFirestorePlugin implements MethodCallHandler {
     return getFirestore(arguments).document(path);
   }
 
-  private Map<String, Object> parseQuerySnapshot(QuerySnapshot querySnapshot) {
+  static Map<String, Object> parseQuerySnapshot(QuerySnapshot querySnapshot) {
+    return parseQuerySnapshot(querySnapshot, null);
+  }
+
+  /** Encodes {@code querySnapshot}, with only the fields of {@code projection} if it is set. */
+  static Map<String, Object> parseQuerySnapshot(
+      QuerySnapshot querySnapshot, @Nullable FieldProjection projection) {
     if (querySnapshot == null) return new HashMap<>();
     Map<String, Object> data = new HashMap<>();
     List<String> paths = new ArrayList<>();
     List<Map<String, Object>> documents = new ArrayList<>();
     for (DocumentSnapshot document : querySnapshot.getDocuments()) {
       paths.add(document.getReference().getPath());
-      documents.add(document.getData());
+      documents.add(FieldProjection.getData(document, projection));
+    }
+    data.put("paths", paths);
+    data.put("documents", documents);
+    data.put("documentChanges", parseDocumentChanges(querySnapshot, true, projection));
+    return data;
+  }
+
+  /**
+   * Encodes only the document changes of {@code querySnapshot}, to be applied by the Dart side to
+   * the result set of the previous snapshot of the same listener.
+   *
+   * <p>Removed documents are sent without their data, as the Dart side still holds it.
+   */
+  static Map<String, Object> parseQuerySnapshotDelta(QuerySnapshot querySnapshot) {
+    return parseQuerySnapshotDelta(querySnapshot, null);
+  }
+
+  static Map<String, Object> parseQuerySnapshotDelta(
+      QuerySnapshot querySnapshot, @Nullable FieldProjection projection) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("delta", true);
+    data.put("documentChanges", parseDocumentChanges(querySnapshot, false, projection));
+    return data;
+  }
+
+  /**
+   * Encodes {@code querySnapshot} for a listener that has not received any snapshot yet, with
+   * every document as an added change, like the first snapshot Firestore sends to a listener.
+   */
+  static Map<String, Object> parseInitialSnapshot(
+      QuerySnapshot querySnapshot, @Nullable FieldProjection projection) {
+    Map<String, Object> data = new HashMap<>();
+    List<String> paths = new ArrayList<>();
+    List<Map<String, Object>> documents = new ArrayList<>();
+    List<Map<String, Object>> documentChanges = new ArrayList<>();
+    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+      String path = document.getReference().getPath();
+      Map<String, Object> documentData = FieldProjection.getData(document, projection);
+      Map<String, Object> change = new HashMap<>();
+      change.put("type", "DocumentChangeType.added");
+      change.put("oldIndex", -1);
+      change.put("newIndex", documents.size());
+      change.put("document", documentData);
+      change.put("path", path);
+      paths.add(path);
+      documents.add(documentData);
+      documentChanges.add(change);
     }
     data.put("paths", paths);
     data.put("documents", documents);
+    data.put("documentChanges", documentChanges);
+    return data;
+  }
 
+  private static List<Map<String, Object>> parseDocumentChanges(
+      QuerySnapshot querySnapshot,
+      boolean includeRemovedData,
+      @Nullable FieldProjection projection) {
     List<Map<String, Object>> documentChanges = new ArrayList<>();
     for (DocumentChange documentChange : querySnapshot.getDocumentChanges()) {
       Map<String, Object> change = new HashMap<>();
@@ -119,20 +255,31 @@ public class CloudFirestorePlugin implements MethodCallHandler {
       change.put("type", type);
       change.put("oldIndex", documentChange.getOldIndex());
       change.put("newIndex", documentChange.getNewIndex());
-      change.put("document", documentChange.getDocument().getData());
+      if (includeRemovedData || documentChange.getType() != DocumentChange.Type.REMOVED) {
+        change.put("document", FieldProjection.getData(documentChange.getDocument(), projection));
+      } else {
+        change.put("document", null);
+      }
       change.put("path", documentChange.getDocument().getReference().getPath());
       documentChanges.add(change);
     }
-    data.put("documentChanges", documentChanges);
-
-    return data;
+    return documentChanges;
   }
 
-  private Transaction getTransaction(Map<String, Object> arguments) {
-    return transactions.get((Integer) arguments.get("transactionId"));
+  /**
+   * Returns the query that {@code arguments} describe, either by the {@code queryId} returned by
+   * {@code Query#register} or by path and parameters, or null if the id has been evicted.
+   */
+  @Nullable
+  private Query getQuery(Map<String, Object> arguments) {
+    Number queryId = (Number) arguments.get("queryId");
+    if (queryId != null) {
+      return queryCache.get(queryId.intValue());
+    }
+    return queryCache.get(arguments);
   }
 
-  private Query getQuery(Map<String, Object> arguments) {
+  private Query buildQuery(Map<String, Object> arguments) {
     Query query = getCollectionReference(arguments);
     @SuppressWarnings("unchecked")
     Map<String, Object> parameters = (Map<String, Object>) arguments.get("parameters");
@@ -185,11 +332,99 @@ public class CloudFirestorePlugin implements MethodCallHandler {
     return query;
   }
 
-  private class DocumentObserver implements EventListener<DocumentSnapshot> {
+  /**
+   * Returns the throttle requested by the {@code maxEventsPerSecond} or {@code debounceMillis}
+   * arguments of a listener, or null if the listener is not throttled.
+   */
+  @Nullable
+  private EventThrottle getThrottle(
+      Map<String, Object> arguments,
+      Executor executor,
+      boolean mergesReplacedEvents,
+      EventThrottle.Callback callback) {
+    Number maxEventsPerSecond = (Number) arguments.get("maxEventsPerSecond");
+    Number debounceMillis = (Number) arguments.get("debounceMillis");
+    long windowMillis;
+    boolean leading;
+    if (maxEventsPerSecond != null && maxEventsPerSecond.intValue() > 0) {
+      windowMillis = Math.max(1, 1000 / maxEventsPerSecond.intValue());
+      leading = true;
+    } else if (debounceMillis != null && debounceMillis.longValue() > 0) {
+      windowMillis = debounceMillis.longValue();
+      leading = false;
+    } else {
+      return null;
+    }
+    return new EventThrottle(
+        mainHandler,
+        executor,
+        windowMillis,
+        leading,
+        mergesReplacedEvents,
+        throttleCounters,
+        callback);
+  }
+
+  /** Reports that the {@code queryId} of a call has been evicted from the query cache. */
+  private static void unknownQuery(Map<String, Object> arguments, Result result) {
+    result.error("UNKNOWN_QUERY", "Query " + arguments.get("queryId") + " is not registered", null);
+  }
+
+  /** A snapshot listener registered from the Dart side. */
+  private interface Listener {
+    /** Stops sending snapshots to {@code handle}, and stops listening once no handle is left. */
+    void remove(int handle);
+  }
+
+  /**
+   * Stops the listener that {@code handle} refers to and frees the handle, if the listener has not
+   * been removed yet.
+   */
+  private void removeListener(int handle) {
+    Listener listener = handles.get(handle, HandleRegistry.QUERY_LISTENER);
+    if (listener == null) {
+      listener = handles.get(handle, HandleRegistry.DOCUMENT_LISTENER);
+    }
+    if (listener != null) {
+      handles.remove(handle);
+      listener.remove(handle);
+      stats.removeListener(handle);
+    }
+  }
+
+  /** Removes a listener that Firestore ended with an error, from a background thread. */
+  private void removeFailedListener(final int handle) {
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            removeListener(handle);
+          }
+        });
+  }
+
+  private class DocumentObserver
+      implements EventListener<DocumentSnapshot>, EventThrottle.Callback, Listener {
     private int handle;
+    private ListenerRegistration registration;
+    @Nullable private final FieldProjection projection;
+    private int messageSize = ByteBufferPool.MIN_CAPACITY;
+    final SerialExecutor executor = new SerialExecutor(encodingExecutor);
+    @Nullable final EventThrottle throttle;
+    // Latest snapshot held back by the throttle.
+    private DocumentSnapshot pendingSnapshot;
 
-    DocumentObserver(int handle) {
-      this.handle = handle;
+    DocumentObserver(Map<String, Object> arguments) {
+      this.projection = FieldProjection.fromArguments(arguments);
+      this.throttle = getThrottle(arguments, executor, false, this);
+    }
+
+    @Override
+    public void remove(int handle) {
+      registration.remove();
+      if (throttle != null) {
+        throttle.cancel();
+      }
     }
 
     @Override
@@ -197,26 +432,112 @@ public class CloudFirestorePlugin implements MethodCallHandler {
       if (e != null) {
         // TODO: send error
         System.out.println(e);
+        removeFailedListener(handle);
+        return;
+      }
+      if (throttle != null && !throttle.onEvent()) {
+        pendingSnapshot = documentSnapshot;
         return;
       }
+      send(documentSnapshot);
+    }
+
+    @Override
+    public void flush() {
+      DocumentSnapshot documentSnapshot = pendingSnapshot;
+      pendingSnapshot = null;
+      send(documentSnapshot);
+    }
+
+    private void send(DocumentSnapshot documentSnapshot) {
+      long start = System.nanoTime();
       Map<String, Object> arguments = new HashMap<>();
       arguments.put("handle", handle);
       if (documentSnapshot.exists()) {
-        arguments.put("data", documentSnapshot.getData());
+        arguments.put("data", FieldProjection.getData(documentSnapshot, projection));
         arguments.put("path", documentSnapshot.getReference().getPath());
       } else {
         arguments.put("data", null);
         arguments.put("path", documentSnapshot.getReference().getPath());
       }
-      channel.invokeMethod("DocumentSnapshot", arguments);
+      messageSize = invokeMethodFromBackground("DocumentSnapshot", arguments, messageSize);
+      stats.recordListenerEvent(handle, messageSize, System.nanoTime() - start);
     }
   }
 
-  private class EventObserver implements EventListener<QuerySnapshot> {
-    private int handle;
+  /**
+   * Listens to one query on behalf of every Dart listener of that query, so that each snapshot is
+   * converted and encoded once and sent to all of their handles in one message.
+   */
+  private class EventObserver
+      implements EventListener<QuerySnapshot>, EventThrottle.Callback, Listener {
+    private final String key;
+    private ListenerRegistration registration;
+    // Handles of the Dart listeners, as seen by the platform thread.
+    private final List<Integer> subscribers = new ArrayList<>();
+    // Handles that snapshots are sent to, as seen by the executor. A listener that joins later is
+    // only added once it has been sent the latest snapshot.
+    private final List<Integer> recipients = new ArrayList<>();
+    private final boolean deltaEncoded;
+    @Nullable private final FieldProjection projection;
+    private boolean sentFullSnapshot = false;
+    // Last snapshot sent, with which listeners that join later are seeded.
+    private QuerySnapshot sentSnapshot;
+    private int messageSize = ByteBufferPool.MIN_CAPACITY;
+    final SerialExecutor executor = new SerialExecutor(encodingExecutor);
+    @Nullable final EventThrottle throttle;
+    // Latest snapshot held back by the throttle, and the document changes of the snapshots it
+    // replaced, which are sent ahead of its own changes.
+    private QuerySnapshot pendingSnapshot;
+    private List<Map<String, Object>> pendingChanges;
+
+    EventObserver(String key, Map<String, Object> arguments) {
+      this.key = key;
+      this.deltaEncoded = Boolean.TRUE.equals(arguments.get("deltaEncoded"));
+      this.projection = FieldProjection.fromArguments(arguments);
+      this.throttle = getThrottle(arguments, executor, true, this);
+    }
 
-    EventObserver(int handle) {
-      this.handle = handle;
+    /** Starts sending snapshots to {@code handle}. Called on the platform thread. */
+    void add(final int handle) {
+      subscribers.add(handle);
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (sentSnapshot != null) {
+                long start = System.nanoTime();
+                Map<String, Object> arguments = parseInitialSnapshot(sentSnapshot, projection);
+                stats.recordParseQuerySnapshot(System.nanoTime() - start);
+                if (deltaEncoded) {
+                  arguments.put("delta", false);
+                }
+                arguments.put("handles", Collections.singletonList(handle));
+                messageSize = invokeMethodFromBackground("QuerySnapshot", arguments, messageSize);
+                stats.recordListenerEvent(handle, messageSize, System.nanoTime() - start);
+              }
+              recipients.add(handle);
+            }
+          });
+    }
+
+    @Override
+    public void remove(final int handle) {
+      subscribers.remove(Integer.valueOf(handle));
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              recipients.remove(Integer.valueOf(handle));
+            }
+          });
+      if (subscribers.isEmpty()) {
+        sharedQueryObservers.remove(key);
+        registration.remove();
+        if (throttle != null) {
+          throttle.cancel();
+        }
+      }
     }
 
     @Override
@@ -224,13 +545,102 @@ public class CloudFirestorePlugin implements MethodCallHandler {
       if (e != null) {
         // TODO: send error
         System.out.println(e);
+        mainHandler.post(
+            new Runnable() {
+              @Override
+              public void run() {
+                for (Integer handle : new ArrayList<>(subscribers)) {
+                  removeListener(handle);
+                }
+              }
+            });
         return;
       }
+      if (throttle != null && !throttle.onEvent()) {
+        if (pendingSnapshot != null) {
+          if (pendingChanges == null) {
+            pendingChanges = new ArrayList<>();
+          }
+          pendingChanges.addAll(parseDocumentChanges(pendingSnapshot, !deltaEncoded, projection));
+        }
+        pendingSnapshot = querySnapshot;
+        return;
+      }
+      send(querySnapshot, null);
+    }
 
-      Map<String, Object> arguments = parseQuerySnapshot(querySnapshot);
-      arguments.put("handle", handle);
+    @Override
+    public void flush() {
+      QuerySnapshot querySnapshot = pendingSnapshot;
+      List<Map<String, Object>> mergedChanges = pendingChanges;
+      pendingSnapshot = null;
+      pendingChanges = null;
+      send(querySnapshot, mergedChanges);
+    }
+
+    private void send(QuerySnapshot querySnapshot, List<Map<String, Object>> mergedChanges) {
+      sentSnapshot = querySnapshot;
+      if (recipients.isEmpty()) {
+        return;
+      }
+      long start = System.nanoTime();
+      Map<String, Object> arguments;
+      if (!deltaEncoded) {
+        arguments = parseQuerySnapshot(querySnapshot, projection);
+      } else if (!sentFullSnapshot) {
+        // The first snapshot seeds the result set cached by the Dart side.
+        arguments = parseQuerySnapshot(querySnapshot, projection);
+        arguments.put("delta", false);
+        sentFullSnapshot = true;
+      } else {
+        arguments = parseQuerySnapshotDelta(querySnapshot, projection);
+      }
+      stats.recordParseQuerySnapshot(System.nanoTime() - start);
+      if (mergedChanges != null) {
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> changes =
+            (List<Map<String, Object>>) arguments.get("documentChanges");
+        mergedChanges.addAll(changes);
+        arguments.put("documentChanges", mergedChanges);
+      }
+      arguments.put("handles", new ArrayList<>(recipients));
 
-      channel.invokeMethod("QuerySnapshot", arguments);
+      messageSize = invokeMethodFromBackground("QuerySnapshot", arguments, messageSize);
+      // The message is shared, so each listener is counted with its full size.
+      long latency = System.nanoTime() - start;
+      for (Integer recipient : recipients) {
+        stats.recordListenerEvent(recipient, messageSize, latency);
+      }
+    }
+  }
+
+  /** Adds one operation of a {@code WriteBatch#commitOperations} call to {@code batch}. */
+  private static void addBatchOperation(
+      FirebaseFirestore firestore, WriteBatch batch, Map<String, Object> operation) {
+    String type = (String) operation.get("type");
+    DocumentReference reference = firestore.document((String) operation.get("path"));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> data = (Map<String, Object>) operation.get("data");
+    switch (type) {
+      case "set":
+        {
+          @SuppressWarnings("unchecked")
+          Map<String, Object> options = (Map<String, Object>) operation.get("options");
+          if (options != null && (Boolean) options.get("merge")) {
+            batch.set(reference, data, SetOptions.merge());
+          } else {
+            batch.set(reference, data);
+          }
+          break;
+        }
+      case "update":
+        batch.update(reference, data);
+        break;
+      case "delete":
+        batch.delete(reference);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown batch operation: " + type);
     }
   }
 
@@ -256,146 +666,42 @@ public class CloudFirestorePlugin implements MethodCallHandler {
     switch (call.method) {
       case "Firestore#runTransaction":
         {
-          final TaskCompletionSource<Map<String, Object>> transactionTCS =
-              new TaskCompletionSource<>();
-          final Task<Map<String, Object>> transactionTCSTask = transactionTCS.getTask();
-
-          final Map<String, Object> arguments = call.arguments();
-          getFirestore(arguments)
-              .runTransaction(
-                  new Transaction.Function<Void>() {
-                    @Nullable
-                    @Override
-                    public Void apply(@NonNull Transaction transaction)
-                        throws FirebaseFirestoreException {
-                      // Store transaction.
-                      int transactionId = (Integer) arguments.get("transactionId");
-                      transactions.append(transactionId, transaction);
-                      completionTasks.append(transactionId, transactionTCS);
-
-                      // Start operations on Dart side.
-                      channel.invokeMethod(
-                          "DoTransaction",
-                          arguments,
-                          new Result() {
-                            @Override
-                            public void success(Object doTransactionResult) {
-                              transactionTCS.setResult((Map<String, Object>) doTransactionResult);
-                            }
-
-                            @Override
-                            public void error(
-                                String errorCode, String errorMessage, Object errorDetails) {
-                              // result.error(errorCode, errorMessage, errorDetails);
-                              transactionTCS.setException(new Exception("Do transaction failed."));
-                            }
-
-                            @Override
-                            public void notImplemented() {
-                              // result.error("DoTransaction not implemented", null, null);
-                              transactionTCS.setException(
-                                  new Exception("DoTransaction not implemented"));
-                            }
-                          });
-
-                      // Wait till transaction is complete.
-                      try {
-                        String timeoutKey = "transactionTimeout";
-                        long timeout = ((Number) arguments.get(timeoutKey)).longValue();
-                        Map<String, Object> transactionResult =
-                            Tasks.await(transactionTCSTask, timeout, TimeUnit.MILLISECONDS);
-
-                        // Once transaction completes return the result to the Dart side.
-                        result.success(transactionResult);
-                      } catch (Exception e) {
-                        result.error("Error performing transaction", e.getMessage(), null);
-                      }
-                      return null;
-                    }
-                  });
+          Map<String, Object> arguments = call.arguments();
+          transactionEngine.run(getFirestore(arguments), arguments, result);
           break;
         }
       case "Transaction#get":
-        {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-              try {
-                DocumentSnapshot documentSnapshot =
-                    transaction.get(getDocumentReference(arguments));
-                Map<String, Object> snapshotMap = new HashMap<>();
-                snapshotMap.put("path", documentSnapshot.getReference().getPath());
-                if (documentSnapshot.exists()) {
-                  snapshotMap.put("data", documentSnapshot.getData());
-                } else {
-                  snapshotMap.put("data", null);
-                }
-                result.success(snapshotMap);
-              } catch (FirebaseFirestoreException e) {
-                result.error("Error performing Transaction#get", e.getMessage(), null);
-              }
-              return null;
-            }
-          }.execute();
-          break;
-        }
       case "Transaction#update":
+      case "Transaction#set":
+      case "Transaction#delete":
         {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-              Map<String, Object> data = (Map<String, Object>) arguments.get("data");
-              try {
-                transaction.update(getDocumentReference(arguments), data);
-                result.success(null);
-              } catch (IllegalStateException e) {
-                result.error("Error performing Transaction#update", e.getMessage(), null);
-              }
-              return null;
-            }
-          }.execute();
+          Map<String, Object> arguments = call.arguments();
+          Map<String, Object> operation = new HashMap<>();
+          operation.put("type", call.method.substring("Transaction#".length()));
+          operation.put("path", arguments.get("path"));
+          operation.put("data", arguments.get("data"));
+          transactionEngine.executeOne((Integer) arguments.get("transactionId"), operation, result);
           break;
         }
-      case "Transaction#set":
+      case "Transaction#execute":
         {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-              Map<String, Object> data = (Map<String, Object>) arguments.get("data");
-              transaction.set(getDocumentReference(arguments), data);
-              result.success(null);
-              return null;
-            }
-          }.execute();
+          Map<String, Object> arguments = call.arguments();
+          @SuppressWarnings("unchecked")
+          List<Map<String, Object>> operations =
+              (List<Map<String, Object>>) arguments.get("operations");
+          transactionEngine.execute((Integer) arguments.get("transactionId"), operations, result);
           break;
         }
-      case "Transaction#delete":
+      case "Firestore#getTransactionStats":
         {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-              transaction.delete(getDocumentReference(arguments));
-              result.success(null);
-              return null;
-            }
-          }.execute();
+          result.success(transactionEngine.getStats());
           break;
         }
       case "WriteBatch#create":
         {
-          int handle = nextBatchHandle++;
           final Map<String, Object> arguments = call.arguments();
           WriteBatch batch = getFirestore(arguments).batch();
-          batches.put(handle, batch);
-          result.success(handle);
+          result.success(handles.register(HandleRegistry.WRITE_BATCH, batch));
           break;
         }
       case "WriteBatch#setData":
@@ -405,7 +711,7 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           DocumentReference reference = getDocumentReference(arguments);
           @SuppressWarnings("unchecked")
           Map<String, Object> options = (Map<String, Object>) arguments.get("options");
-          WriteBatch batch = batches.get(handle);
+          WriteBatch batch = handles.get(handle, HandleRegistry.WRITE_BATCH);
           if (options != null && (Boolean) options.get("merge")) {
             batch.set(reference, arguments.get("data"), SetOptions.merge());
           } else {
@@ -421,7 +727,7 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           DocumentReference reference = getDocumentReference(arguments);
           @SuppressWarnings("unchecked")
           Map<String, Object> data = (Map<String, Object>) arguments.get("data");
-          WriteBatch batch = batches.get(handle);
+          WriteBatch batch = handles.get(handle, HandleRegistry.WRITE_BATCH);
           batch.update(reference, data);
           result.success(null);
           break;
@@ -431,7 +737,7 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           Map<String, Object> arguments = call.arguments();
           int handle = (Integer) arguments.get("handle");
           DocumentReference reference = getDocumentReference(arguments);
-          WriteBatch batch = batches.get(handle);
+          WriteBatch batch = handles.get(handle, HandleRegistry.WRITE_BATCH);
           batch.delete(reference);
           result.success(null);
           break;
@@ -440,40 +746,187 @@ public class CloudFirestorePlugin implements MethodCallHandler {
         {
           Map<String, Object> arguments = call.arguments();
           int handle = (Integer) arguments.get("handle");
-          WriteBatch batch = batches.get(handle);
+          WriteBatch batch = handles.get(handle, HandleRegistry.WRITE_BATCH);
           Task<Void> task = batch.commit();
-          batches.delete(handle);
+          handles.remove(handle);
           addDefaultListeners("commit", task, result);
           break;
         }
+      case "WriteBatch#commitOperations":
+        {
+          Map<String, Object> arguments = call.arguments();
+          FirebaseFirestore firestore = getFirestore(arguments);
+          @SuppressWarnings("unchecked")
+          List<Map<String, Object>> operations =
+              (List<Map<String, Object>>) arguments.get("operations");
+          // Every chunk is built before any is committed, so that an invalid operation fails
+          // the call without writing anything.
+          List<WriteBatch> batches = new ArrayList<>();
+          try {
+            WriteBatch batch = null;
+            int batchSize = 0;
+            for (Map<String, Object> operation : operations) {
+              if (batch == null) {
+                batch = firestore.batch();
+                batches.add(batch);
+              }
+              addBatchOperation(firestore, batch, operation);
+              if (++batchSize == MAX_WRITES_PER_BATCH) {
+                batch = null;
+                batchSize = 0;
+              }
+            }
+          } catch (IllegalArgumentException e) {
+            result.error("Error performing commitOperations", e.getMessage(), null);
+            break;
+          }
+          // The chunks are committed together and are atomic on their own: one failing does
+          // not undo the others.
+          List<Task<Void>> commits = new ArrayList<>();
+          for (WriteBatch batch : batches) {
+            commits.add(batch.commit());
+          }
+          addDefaultListeners("commitOperations", Tasks.whenAll(commits), result);
+          break;
+        }
+      case "Query#register":
+        {
+          Map<String, Object> arguments = call.arguments();
+          result.success(queryCache.register(arguments));
+          break;
+        }
+      case "Firestore#settings":
+        {
+          Map<String, Object> arguments = call.arguments();
+          FirebaseFirestore firestore = getFirestore(arguments);
+          try {
+            FirebaseFirestoreSettings.Builder settings =
+                new FirebaseFirestoreSettings.Builder(firestore.getFirestoreSettings());
+            Boolean persistenceEnabled = (Boolean) arguments.get("persistenceEnabled");
+            if (persistenceEnabled != null) {
+              settings.setPersistenceEnabled(persistenceEnabled);
+            }
+            Number cacheSizeBytes = (Number) arguments.get("cacheSizeBytes");
+            if (cacheSizeBytes != null) {
+              // Fails for sizes below the minimum of 1 MB.
+              settings.setCacheSizeBytes(cacheSizeBytes.longValue());
+            }
+            // Fails once the instance has been used.
+            firestore.setFirestoreSettings(settings.build());
+            result.success(null);
+          } catch (IllegalArgumentException | IllegalStateException e) {
+            result.error("Error performing settings", e.getMessage(), null);
+          }
+          break;
+        }
+      case "Firestore#getQueryCacheStats":
+        {
+          result.success(queryCache.getStats());
+          break;
+        }
+      case "Query#getDocumentPages":
+        {
+          Map<String, Object> arguments = call.arguments();
+          Query query = getQuery(arguments);
+          if (query == null) {
+            unknownQuery(arguments, result);
+            break;
+          }
+          @SuppressWarnings("unchecked")
+          Map<String, Object> parameters = (Map<String, Object>) arguments.get("parameters");
+          Number limit = parameters != null ? (Number) parameters.get("limit") : null;
+          Number pageSize = (Number) arguments.get("pageSize");
+          final QueryPageStream stream =
+              new QueryPageStream(
+                  query,
+                  pageSize != null ? pageSize.intValue() : DEFAULT_PAGE_SIZE,
+                  limit != null ? limit.longValue() : Long.MAX_VALUE,
+                  encodingExecutor,
+                  mainHandler);
+          final int handle = handles.register(HandleRegistry.PAGE_STREAM, stream);
+          final EventChannel pagesChannel =
+              new EventChannel(messenger, PAGES_CHANNEL_PREFIX + handle, METHOD_CODEC);
+          pagesChannel.setStreamHandler(
+              new EventChannel.StreamHandler() {
+                @Override
+                public void onListen(Object listenArguments, EventChannel.EventSink events) {
+                  stream.start(events);
+                }
+
+                @Override
+                public void onCancel(Object cancelArguments) {
+                  stream.cancel();
+                  pagesChannel.setStreamHandler(null);
+                  handles.remove(handle);
+                }
+              });
+          result.success(handle);
+          break;
+        }
       case "Query#addSnapshotListener":
         {
           Map<String, Object> arguments = call.arguments();
-          int handle = nextListenerHandle++;
-          EventObserver observer = new EventObserver(handle);
-          observers.put(handle, observer);
-          listenerRegistrations.put(handle, getQuery(arguments).addSnapshotListener(observer));
+          // Listeners of the same query with the same options share one registration.
+          String key = QueryKey.of(arguments);
+          EventObserver observer = sharedQueryObservers.get(key);
+          if (observer == null) {
+            Query query = getQuery(arguments);
+            if (query == null) {
+              unknownQuery(arguments, result);
+              break;
+            }
+            observer = new EventObserver(key, arguments);
+            observer.registration = query.addSnapshotListener(observer.executor, observer);
+            sharedQueryObservers.put(key, observer);
+          }
+          int handle = handles.register(HandleRegistry.QUERY_LISTENER, observer);
+          stats.addListener(handle);
+          observer.add(handle);
           result.success(handle);
           break;
         }
       case "Query#addDocumentListener":
         {
           Map<String, Object> arguments = call.arguments();
-          int handle = nextListenerHandle++;
-          DocumentObserver observer = new DocumentObserver(handle);
-          documentObservers.put(handle, observer);
-          listenerRegistrations.put(
-              handle, getDocumentReference(arguments).addSnapshotListener(observer));
-          result.success(handle);
+          DocumentObserver observer = new DocumentObserver(arguments);
+          observer.handle = handles.register(HandleRegistry.DOCUMENT_LISTENER, observer);
+          stats.addListener(observer.handle);
+          observer.registration =
+              getDocumentReference(arguments).addSnapshotListener(observer.executor, observer);
+          result.success(observer.handle);
           break;
         }
       case "Query#removeListener":
         {
           Map<String, Object> arguments = call.arguments();
-          int handle = (Integer) arguments.get("handle");
-          listenerRegistrations.get(handle).remove();
-          listenerRegistrations.remove(handle);
-          observers.remove(handle);
+          removeListener((Integer) arguments.get("handle"));
+          result.success(null);
+          break;
+        }
+      case "Firestore#getThrottlingStats":
+        {
+          Map<String, Object> stats = new HashMap<>();
+          stats.put("droppedEvents", throttleCounters.droppedEvents.get());
+          stats.put("mergedEvents", throttleCounters.mergedEvents.get());
+          result.success(stats);
+          break;
+        }
+      case "Firestore#getHandleCounts":
+        {
+          Map<String, Object> counts = handles.getCounts();
+          counts.put("queryRegistrations", sharedQueryObservers.size());
+          counts.put("transactions", transactionEngine.getRunningCount());
+          result.success(counts);
+          break;
+        }
+      case "Firestore#getStats":
+        {
+          result.success(stats.toMap());
+          break;
+        }
+      case "Firestore#resetStats":
+        {
+          stats.reset();
           result.success(null);
           break;
         }
@@ -481,12 +934,30 @@ public class CloudFirestorePlugin implements MethodCallHandler {
         {
           Map<String, Object> arguments = call.arguments();
           Query query = getQuery(arguments);
-          Task<QuerySnapshot> task = query.get();
+          if (query == null) {
+            unknownQuery(arguments, result);
+            break;
+          }
+          final FieldProjection projection = FieldProjection.fromArguments(arguments);
+          Task<QuerySnapshot> task = query.get(getSource(arguments));
           task.addOnSuccessListener(
+                  encodingExecutor,
                   new OnSuccessListener<QuerySnapshot>() {
                     @Override
                     public void onSuccess(QuerySnapshot querySnapshot) {
-                      result.success(parseQuerySnapshot(querySnapshot));
+                      long start = System.nanoTime();
+                      Map<String, Object> parsed = parseQuerySnapshot(querySnapshot, projection);
+                      stats.recordParseQuerySnapshot(System.nanoTime() - start);
+                      // Sent pre-encoded so that only a byte copy happens on the platform thread.
+                      final byte[] snapshot =
+                          DirectMessageEncoder.encodeToBytes(parsed, ByteBufferPool.MIN_CAPACITY);
+                      mainHandler.post(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              result.success(snapshot);
+                            }
+                          });
                     }
                   })
               .addOnFailureListener(
@@ -527,7 +998,8 @@ public class CloudFirestorePlugin implements MethodCallHandler {
         {
           Map<String, Object> arguments = call.arguments();
           DocumentReference documentReference = getDocumentReference(arguments);
-          Task<DocumentSnapshot> task = documentReference.get();
+          final FieldProjection projection = FieldProjection.fromArguments(arguments);
+          Task<DocumentSnapshot> task = documentReference.get(getSource(arguments));
           task.addOnSuccessListener(
                   new OnSuccessListener<DocumentSnapshot>() {
                     @Override
@@ -535,7 +1007,8 @@ public class CloudFirestorePlugin implements MethodCallHandler {
                       Map<String, Object> snapshotMap = new HashMap<>();
                       snapshotMap.put("path", documentSnapshot.getReference().getPath());
                       if (documentSnapshot.exists()) {
-                        snapshotMap.put("data", documentSnapshot.getData());
+                        snapshotMap.put(
+                            "data", FieldProjection.getData(documentSnapshot, projection));
                       } else {
                         snapshotMap.put("data", null);
                       }
@@ -551,6 +1024,43 @@ public class CloudFirestorePlugin implements MethodCallHandler {
                   });
           break;
         }
+      case "Firestore#getAll":
+        {
+          Map<String, Object> arguments = call.arguments();
+          @SuppressWarnings("unchecked")
+          List<String> paths = (List<String>) arguments.get("paths");
+          Number maxConcurrentReads = (Number) arguments.get("maxConcurrentReads");
+          int limit =
+              maxConcurrentReads != null && maxConcurrentReads.intValue() > 0
+                  ? maxConcurrentReads.intValue()
+                  : DEFAULT_MAX_CONCURRENT_READS;
+          BulkDocumentReader.getAll(getFirestore(arguments), paths, limit, encodingExecutor)
+              .addOnSuccessListener(
+                  encodingExecutor,
+                  new OnSuccessListener<List<Map<String, Object>>>() {
+                    @Override
+                    public void onSuccess(List<Map<String, Object>> snapshots) {
+                      final byte[] encoded =
+                          DirectMessageEncoder.encodeToBytes(
+                              snapshots, ByteBufferPool.MIN_CAPACITY);
+                      mainHandler.post(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              result.success(encoded);
+                            }
+                          });
+                    }
+                  })
+              .addOnFailureListener(
+                  new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                      result.error("Error performing getAll", e.getMessage(), null);
+                    }
+                  });
+          break;
+        }
       case "DocumentReference#delete":
         {
           Map<String, Object> arguments = call.arguments();
@@ -571,10 +1081,28 @@ public class CloudFirestorePlugin implements MethodCallHandler {
 final class FirestoreMessageCodec extends StandardMessageCodec {
   public static final FirestoreMessageCodec INSTANCE = new FirestoreMessageCodec();
   private static final Charset UTF8 = Charset.forName("UTF8");
-  private static final byte DATE_TIME = (byte) 128;
-  private static final byte GEO_POINT = (byte) 129;
-  private static final byte DOCUMENT_REFERENCE = (byte) 130;
-  private static final byte BLOB = (byte) 131;
+  static final byte DATE_TIME = (byte) 128;
+  static final byte GEO_POINT = (byte) 129;
+  static final byte DOCUMENT_REFERENCE = (byte) 130;
+  static final byte BLOB = (byte) 131;
+  // Only written by DirectMessageEncoder, which interns app names and parent paths.
+  static final byte INTERNED_DOCUMENT_REFERENCE = (byte) 132;
+  static final byte INTERNED_PATH = (byte) 133;
+
+  // String table of the message being decoded by decodeMessage on each thread.
+  private static final ThreadLocal<List<String>> stringTables = new ThreadLocal<>();
+
+  /** Decodes {@code message}, which may hold interned values written by DirectMessageEncoder. */
+  @Override
+  public Object decodeMessage(ByteBuffer message) {
+    List<String> previous = stringTables.get();
+    stringTables.set(new ArrayList<String>());
+    try {
+      return super.decodeMessage(message);
+    } finally {
+      stringTables.set(previous);
+    }
+  }
 
   @Override
   protected void writeValue(ByteArrayOutputStream stream, Object value) {
@@ -618,8 +1146,39 @@ final class FirestoreMessageCodec extends StandardMessageCodec {
       case BLOB:
         final byte[] bytes = readBytes(buffer);
         return Blob.fromBytes(bytes);
+      case INTERNED_DOCUMENT_REFERENCE:
+        {
+          String internedAppName = readInterned(buffer);
+          String parentPath = readInterned(buffer);
+          String documentId = new String(readBytes(buffer), UTF8);
+          return FirebaseFirestore.getInstance(FirebaseApp.getInstance(internedAppName))
+              .document(parentPath + "/" + documentId);
+        }
+      case INTERNED_PATH:
+        {
+          String parentPath = readInterned(buffer);
+          return parentPath + "/" + new String(readBytes(buffer), UTF8);
+        }
       default:
         return super.readValueOfType(type, buffer);
     }
   }
+
+  /**
+   * Reads a string of the message's string table, in full on its first occurrence and as its
+   * index afterwards.
+   */
+  private static String readInterned(ByteBuffer buffer) {
+    List<String> table = stringTables.get();
+    if (table == null) {
+      throw new IllegalArgumentException("Interned values are only decoded by decodeMessage");
+    }
+    int index = readSize(buffer);
+    if (index < table.size()) {
+      return table.get(index);
+    }
+    String value = new String(readBytes(buffer), UTF8);
+    table.add(value);
+    return value;
+  }
 }
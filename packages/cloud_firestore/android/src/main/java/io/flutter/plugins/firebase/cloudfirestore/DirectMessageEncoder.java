@@ -0,0 +1,363 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.GeoPoint;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes Firestore payloads in the {@link FirestoreMessageCodec} format straight into pooled
+ * direct {@link ByteBuffer}s.
+ *
+ * <p>Unlike {@link FirestoreMessageCodec}, which writes into a growing {@link
+ * java.io.ByteArrayOutputStream} that is copied once more into a direct buffer, this encoder
+ * writes into a buffer sized from a hint and only copies when the hint was too small.
+ *
+ * <p>App names and the parent paths of documents are written to a per-message string table the
+ * first time they occur; later occurrences are written as their index in the table. A query result
+ * therefore carries its collection path once instead of once per document. Only document
+ * references and the {@code path} and {@code paths} entries of snapshots are interned; strings in
+ * document data are written as they are, whatever they contain.
+ *
+ * <p>Instances are not thread safe; use one per message.
+ */
+final class DirectMessageEncoder {
+  private static final Charset UTF8 = Charset.forName("UTF8");
+  private static final ByteBufferPool POOL = new ByteBufferPool();
+
+  private static final byte NULL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte BIGINT = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte STRING = 7;
+  private static final byte BYTE_ARRAY = 8;
+  private static final byte INT_ARRAY = 9;
+  private static final byte LONG_ARRAY = 10;
+  private static final byte DOUBLE_ARRAY = 11;
+  private static final byte LIST = 12;
+  private static final byte MAP = 13;
+
+  private final Map<String, Integer> stringTable = new HashMap<>();
+  private ByteBuffer buffer;
+
+  private DirectMessageEncoder(int sizeHint) {
+    buffer = POOL.acquire(sizeHint);
+  }
+
+  /**
+   * Encodes a method call in the {@link io.flutter.plugin.common.StandardMethodCodec} envelope.
+   *
+   * <p>The returned buffer's position is the length of the message, as expected by {@link
+   * io.flutter.plugin.common.BinaryMessenger#send}. Hand it back with {@link #release} once sent.
+   */
+  static ByteBuffer encodeMethodCall(String method, Object arguments, int sizeHint) {
+    DirectMessageEncoder encoder = new DirectMessageEncoder(sizeHint);
+    encoder.writeValue(method);
+    encoder.writeSnapshotValue(arguments);
+    return encoder.buffer;
+  }
+
+  /** Encodes {@code value} into a byte array that the Dart side decodes as a message. */
+  static byte[] encodeToBytes(Object value, int sizeHint) {
+    DirectMessageEncoder encoder = new DirectMessageEncoder(sizeHint);
+    encoder.writeSnapshotValue(value);
+    ByteBuffer buffer = encoder.buffer;
+    byte[] bytes = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(bytes);
+    release(buffer);
+    return bytes;
+  }
+
+  /** Returns a buffer obtained from {@link #encodeMethodCall} to the pool. */
+  static void release(ByteBuffer buffer) {
+    POOL.release(buffer);
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (buffer.remaining() >= bytes) return;
+    ByteBuffer grown = POOL.acquire(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+    buffer.flip();
+    grown.put(buffer);
+    POOL.release(buffer);
+    buffer = grown;
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    buffer.put((byte) value);
+  }
+
+  private void writeSize(int value) {
+    ensureCapacity(5);
+    if (value < 254) {
+      buffer.put((byte) value);
+    } else if (value <= 0xffff) {
+      buffer.put((byte) 254);
+      buffer.putChar((char) value);
+    } else {
+      buffer.put((byte) 255);
+      buffer.putInt(value);
+    }
+  }
+
+  private void writeAlignment(int alignment) {
+    int mod = buffer.position() % alignment;
+    if (mod != 0) {
+      ensureCapacity(alignment - mod);
+      for (int i = 0; i < alignment - mod; i++) {
+        buffer.put((byte) 0);
+      }
+    }
+  }
+
+  private void writeBytes(byte[] bytes) {
+    writeSize(bytes.length);
+    ensureCapacity(bytes.length);
+    buffer.put(bytes);
+  }
+
+  /** Writes {@code value} as UTF-8 without allocating an intermediate byte array. */
+  private void writeUtf8(String value) {
+    int length = utf8Length(value);
+    writeSize(length);
+    ensureCapacity(length);
+    if (length == value.length()) {
+      for (int i = 0; i < length; i++) {
+        buffer.put((byte) value.charAt(i));
+      }
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xc0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put((byte) (0xf0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced, as String.getBytes does.
+        buffer.put((byte) '?');
+      } else {
+        buffer.put((byte) (0xe0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+  }
+
+  private static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Writes the index of {@code value} in the string table, followed by the string itself if this
+   * is its first occurrence in the message.
+   */
+  private void writeInterned(String value) {
+    Integer id = stringTable.get(value);
+    if (id != null) {
+      writeSize(id);
+      return;
+    }
+    id = stringTable.size();
+    stringTable.put(value, id);
+    writeSize(id);
+    writeUtf8(value);
+  }
+
+  /** Writes {@code path} with its parent path interned. */
+  private void writeInternedPath(String path) {
+    int separator = path.lastIndexOf('/');
+    if (separator <= 0) {
+      writeByte(STRING);
+      writeUtf8(path);
+      return;
+    }
+    writeByte(FirestoreMessageCodec.INTERNED_PATH);
+    writeInterned(path.substring(0, separator));
+    writeUtf8(path.substring(separator + 1));
+  }
+
+  /**
+   * Writes the maps and lists that describe snapshots, interning the strings of their {@code
+   * path} and {@code paths} entries. Document data, under the {@code data}, {@code document} and
+   * {@code documents} entries, is written by {@link #writeValue}.
+   */
+  private void writeSnapshotValue(Object value) {
+    if (value instanceof List) {
+      writeByte(LIST);
+      List<?> list = (List<?>) value;
+      writeSize(list.size());
+      for (Object o : list) {
+        writeSnapshotValue(o);
+      }
+    } else if (value instanceof Map) {
+      writeByte(MAP);
+      Map<?, ?> map = (Map<?, ?>) value;
+      writeSize(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        Object key = entry.getKey();
+        writeValue(key);
+        if ("path".equals(key) && entry.getValue() instanceof String) {
+          writeInternedPath((String) entry.getValue());
+        } else if ("paths".equals(key) && entry.getValue() instanceof List) {
+          List<?> paths = (List<?>) entry.getValue();
+          writeByte(LIST);
+          writeSize(paths.size());
+          for (Object path : paths) {
+            if (path instanceof String) {
+              writeInternedPath((String) path);
+            } else {
+              writeValue(path);
+            }
+          }
+        } else if ("data".equals(key) || "document".equals(key) || "documents".equals(key)) {
+          writeValue(entry.getValue());
+        } else {
+          writeSnapshotValue(entry.getValue());
+        }
+      }
+    } else {
+      writeValue(value);
+    }
+  }
+
+  private void writeValue(Object value) {
+    if (value == null) {
+      writeByte(NULL);
+    } else if (value instanceof Boolean) {
+      writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Number) {
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        writeByte(INT);
+        ensureCapacity(4);
+        buffer.putInt(((Number) value).intValue());
+      } else if (value instanceof Long) {
+        writeByte(LONG);
+        ensureCapacity(8);
+        buffer.putLong((Long) value);
+      } else if (value instanceof Float || value instanceof Double) {
+        writeByte(DOUBLE);
+        writeAlignment(8);
+        ensureCapacity(8);
+        buffer.putDouble(((Number) value).doubleValue());
+      } else if (value instanceof BigInteger) {
+        writeByte(BIGINT);
+        writeBytes(((BigInteger) value).toString(16).getBytes(UTF8));
+      } else {
+        throw new IllegalArgumentException("Unsupported Number type: " + value.getClass());
+      }
+    } else if (value instanceof String) {
+      writeByte(STRING);
+      writeUtf8((String) value);
+    } else if (value instanceof byte[]) {
+      writeByte(BYTE_ARRAY);
+      writeBytes((byte[]) value);
+    } else if (value instanceof int[]) {
+      writeByte(INT_ARRAY);
+      int[] array = (int[]) value;
+      writeSize(array.length);
+      writeAlignment(4);
+      ensureCapacity(4 * array.length);
+      for (int n : array) {
+        buffer.putInt(n);
+      }
+    } else if (value instanceof long[]) {
+      writeByte(LONG_ARRAY);
+      long[] array = (long[]) value;
+      writeSize(array.length);
+      writeAlignment(8);
+      ensureCapacity(8 * array.length);
+      for (long n : array) {
+        buffer.putLong(n);
+      }
+    } else if (value instanceof double[]) {
+      writeByte(DOUBLE_ARRAY);
+      double[] array = (double[]) value;
+      writeSize(array.length);
+      writeAlignment(8);
+      ensureCapacity(8 * array.length);
+      for (double d : array) {
+        buffer.putDouble(d);
+      }
+    } else if (value instanceof List) {
+      writeByte(LIST);
+      List<?> list = (List<?>) value;
+      writeSize(list.size());
+      for (Object o : list) {
+        writeValue(o);
+      }
+    } else if (value instanceof Map) {
+      writeByte(MAP);
+      Map<?, ?> map = (Map<?, ?>) value;
+      writeSize(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    } else if (value instanceof Date) {
+      writeByte(FirestoreMessageCodec.DATE_TIME);
+      ensureCapacity(8);
+      buffer.putLong(((Date) value).getTime());
+    } else if (value instanceof GeoPoint) {
+      writeByte(FirestoreMessageCodec.GEO_POINT);
+      writeAlignment(8);
+      ensureCapacity(16);
+      buffer.putDouble(((GeoPoint) value).getLatitude());
+      buffer.putDouble(((GeoPoint) value).getLongitude());
+    } else if (value instanceof DocumentReference) {
+      DocumentReference reference = (DocumentReference) value;
+      String path = reference.getPath();
+      int separator = path.lastIndexOf('/');
+      writeByte(FirestoreMessageCodec.INTERNED_DOCUMENT_REFERENCE);
+      writeInterned(reference.getFirestore().getApp().getName());
+      writeInterned(path.substring(0, separator));
+      writeUtf8(path.substring(separator + 1));
+    } else if (value instanceof Blob) {
+      writeByte(FirestoreMessageCodec.BLOB);
+      writeBytes(((Blob) value).toBytes());
+    } else {
+      throw new IllegalArgumentException("Unsupported value: " + value);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.os.Handler;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often a listener sends snapshots to Dart to one per window.
+ *
+ * <p>Events that arrive while a window is open are held back by the listener, which only keeps
+ * the latest one (merging document changes where needed). When the window closes, {@link
+ * Callback#flush} is invoked so the listener can send what it held back, and a new window opens.
+ *
+ * <p>Every held back event is counted in {@link Counters} once its fate is known: as merged if it
+ * reached Dart in the message sent at the end of its window, or as dropped if it did not, because
+ * a later event replaced it or the listener was removed first.
+ *
+ * <p>All methods and callbacks run on the listener's serial executor.
+ */
+final class EventThrottle {
+  interface Callback {
+    /** Sends the event held back during the window that just closed. */
+    void flush();
+  }
+
+  /** Counts of held back events, shared by all the listeners of the plugin. */
+  static final class Counters {
+    final AtomicLong droppedEvents = new AtomicLong();
+    final AtomicLong mergedEvents = new AtomicLong();
+  }
+
+  private final Handler handler;
+  private final Executor executor;
+  private final long windowMillis;
+  private final boolean leading;
+  private final Callback callback;
+  private final boolean mergesReplacedEvents;
+  private final Counters counters;
+
+  private boolean windowOpen = false;
+  private boolean pending = false;
+  // Held back events replaced by a later one in the current window.
+  private int replacedEvents = 0;
+  private boolean cancelled = false;
+
+  /**
+   * @param windowMillis the length of a window.
+   * @param leading whether the first event of a window is sent right away, as opposed to at the
+   *     end of the window.
+   * @param mergesReplacedEvents whether the listener sends what it needs of replaced events along
+   *     with the event that replaced them, like the document changes of query snapshots, as
+   *     opposed to dropping them.
+   */
+  EventThrottle(
+      Handler handler,
+      Executor executor,
+      long windowMillis,
+      boolean leading,
+      boolean mergesReplacedEvents,
+      Counters counters,
+      Callback callback) {
+    this.handler = handler;
+    this.executor = executor;
+    this.windowMillis = windowMillis;
+    this.leading = leading;
+    this.mergesReplacedEvents = mergesReplacedEvents;
+    this.counters = counters;
+    this.callback = callback;
+  }
+
+  /**
+   * Returns whether the listener should send the current event now. If not, the listener must
+   * hold it back until {@link Callback#flush} is invoked.
+   */
+  boolean onEvent() {
+    if (!windowOpen) {
+      windowOpen = true;
+      scheduleWindowEnd();
+      if (leading) {
+        return true;
+      }
+    }
+    if (pending) {
+      replacedEvents++;
+    }
+    pending = true;
+    return false;
+  }
+
+  /** Drops any held back event; no further flushes happen. */
+  void cancel() {
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (pending) {
+              counters.droppedEvents.addAndGet(replacedEvents + 1);
+            }
+            cancelled = true;
+            pending = false;
+            replacedEvents = 0;
+          }
+        });
+  }
+
+  private void scheduleWindowEnd() {
+    handler.postDelayed(
+        new Runnable() {
+          @Override
+          public void run() {
+            executor.execute(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    onWindowEnd();
+                  }
+                });
+          }
+        },
+        windowMillis);
+  }
+
+  private void onWindowEnd() {
+    if (cancelled) return;
+    if (pending) {
+      if (mergesReplacedEvents) {
+        counters.mergedEvents.addAndGet(replacedEvents + 1);
+      } else {
+        counters.droppedEvents.addAndGet(replacedEvents);
+        counters.mergedEvents.incrementAndGet();
+      }
+      pending = false;
+      replacedEvents = 0;
+      callback.flush();
+      scheduleWindowEnd();
+    } else {
+      windowOpen = false;
+    }
+  }
+}
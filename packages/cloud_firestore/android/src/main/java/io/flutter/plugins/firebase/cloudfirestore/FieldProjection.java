@@ -0,0 +1,81 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields that the Dart side selected with the {@code select} argument of a read or listener.
+ *
+ * <p>Only the selected fields are copied into the data sent to Dart, so the rest of a large
+ * document is neither converted nor encoded.
+ */
+final class FieldProjection {
+  private final String[][] segments;
+  private final FieldPath[] fieldPaths;
+
+  private FieldProjection(List<String> select) {
+    segments = new String[select.size()][];
+    fieldPaths = new FieldPath[select.size()];
+    for (int i = 0; i < select.size(); i++) {
+      segments[i] = select.get(i).split("\\.");
+      fieldPaths[i] = FieldPath.of(segments[i]);
+    }
+  }
+
+  /** Returns the projection requested by {@code arguments}, or null if all fields are wanted. */
+  @Nullable
+  static FieldProjection fromArguments(Map<String, Object> arguments) {
+    @SuppressWarnings("unchecked")
+    List<String> select = (List<String>) arguments.get("select");
+    return select != null ? new FieldProjection(select) : null;
+  }
+
+  /** Returns the data of {@code document}, limited to the fields of {@code projection} if any. */
+  @Nullable
+  static Map<String, Object> getData(
+      DocumentSnapshot document, @Nullable FieldProjection projection) {
+    return projection != null ? projection.apply(document) : document.getData();
+  }
+
+  /**
+   * Copies the selected fields of {@code document} into a map, nesting the fields of dotted paths
+   * the way they are nested in the document. Fields that the document does not have are left out.
+   */
+  @Nullable
+  Map<String, Object> apply(DocumentSnapshot document) {
+    if (!document.exists()) {
+      return null;
+    }
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < fieldPaths.length; i++) {
+      Object value = document.get(fieldPaths[i]);
+      if (value == null && !document.contains(fieldPaths[i])) {
+        continue;
+      }
+      put(data, segments[i], value);
+    }
+    return data;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void put(Map<String, Object> data, String[] path, Object value) {
+    Map<String, Object> parent = data;
+    for (int i = 0; i < path.length - 1; i++) {
+      Object child = parent.get(path[i]);
+      if (!(child instanceof Map)) {
+        child = new HashMap<String, Object>();
+        parent.put(path[i], child);
+      }
+      parent = (Map<String, Object>) child;
+    }
+    parent.put(path[path.length - 1], value);
+  }
+}
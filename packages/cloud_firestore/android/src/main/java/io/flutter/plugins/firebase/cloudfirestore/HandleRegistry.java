@@ -0,0 +1,120 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.support.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The objects that the Dart side refers to by handle, such as listeners and write batches.
+ *
+ * <p>A handle packs the index of a slot in a flat table with the generation of that slot. The
+ * generation is bumped whenever the slot is freed, so a handle that outlives its object, e.g. a
+ * late {@code removeListener}, finds nothing instead of the object that reused the slot.
+ *
+ * <p>Only used from the platform thread.
+ */
+final class HandleRegistry {
+  static final int QUERY_LISTENER = 0;
+  static final int DOCUMENT_LISTENER = 1;
+  static final int WRITE_BATCH = 2;
+  static final int PAGE_STREAM = 3;
+  private static final String[] TYPE_NAMES = {
+    "queryListeners", "documentListeners", "writeBatches", "pageStreams"
+  };
+
+  private static final int SLOT_BITS = 16;
+  private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+  // Keeps handles non-negative.
+  private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private int[] types = new int[INITIAL_CAPACITY];
+  private int[] generations = new int[INITIAL_CAPACITY];
+  // Free slots form a linked list through this array, starting at freeHead.
+  private int[] nextFree = new int[INITIAL_CAPACITY];
+  private int freeHead = -1;
+  private int usedSlots = 0;
+  private final int[] liveCounts = new int[TYPE_NAMES.length];
+
+  /** Stores {@code value} and returns the handle that refers to it. */
+  int register(int type, Object value) {
+    int slot;
+    if (freeHead != -1) {
+      slot = freeHead;
+      freeHead = nextFree[slot];
+    } else {
+      if (usedSlots == values.length) {
+        grow();
+      }
+      slot = usedSlots++;
+    }
+    values[slot] = value;
+    types[slot] = type;
+    liveCounts[type]++;
+    return (generations[slot] << SLOT_BITS) | slot;
+  }
+
+  /** Returns the object of the given type that {@code handle} refers to, or null if it is gone. */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  <T> T get(int handle, int type) {
+    int slot = findSlot(handle);
+    if (slot == -1 || types[slot] != type) {
+      return null;
+    }
+    return (T) values[slot];
+  }
+
+  /** Removes and returns the object that {@code handle} refers to, or null if it is gone. */
+  @Nullable
+  Object remove(int handle) {
+    int slot = findSlot(handle);
+    if (slot == -1) {
+      return null;
+    }
+    Object value = values[slot];
+    values[slot] = null;
+    liveCounts[types[slot]]--;
+    generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+    nextFree[slot] = freeHead;
+    freeHead = slot;
+    return value;
+  }
+
+  /** Returns the number of live handles of each type, by type name. */
+  Map<String, Object> getCounts() {
+    Map<String, Object> counts = new HashMap<>();
+    for (int type = 0; type < TYPE_NAMES.length; type++) {
+      counts.put(TYPE_NAMES[type], liveCounts[type]);
+    }
+    return counts;
+  }
+
+  private int findSlot(int handle) {
+    int slot = handle & SLOT_MASK;
+    if (handle < 0
+        || slot >= usedSlots
+        || values[slot] == null
+        || generations[slot] != handle >>> SLOT_BITS) {
+      return -1;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    int capacity = values.length * 2;
+    if (capacity > SLOT_MASK + 1) {
+      throw new IllegalStateException("Too many live handles");
+    }
+    values = Arrays.copyOf(values, capacity);
+    types = Arrays.copyOf(types, capacity);
+    generations = Arrays.copyOf(generations, capacity);
+    nextFree = Arrays.copyOf(nextFree, capacity);
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.util.Log;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
+import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.MethodCodec;
+import java.nio.ByteBuffer;
+
+/**
+ * Dispatches the method calls of a channel to a {@link MethodCallHandler} like {@code
+ * MethodChannel} does, while recording the encoded size and latency of each call in {@link
+ * ChannelStats}.
+ */
+final class InstrumentedMethodHandler implements BinaryMessenger.BinaryMessageHandler {
+  private static final String TAG = "InstrumentedMethodHandler";
+
+  private final MethodCallHandler handler;
+  private final MethodCodec codec;
+  private final ChannelStats stats;
+
+  InstrumentedMethodHandler(MethodCallHandler handler, MethodCodec codec, ChannelStats stats) {
+    this.handler = handler;
+    this.codec = codec;
+    this.stats = stats;
+  }
+
+  @Override
+  public void onMessage(ByteBuffer message, final BinaryMessenger.BinaryReply reply) {
+    final long start = System.nanoTime();
+    final int callSize = message.remaining();
+    final MethodCall call = codec.decodeMethodCall(message);
+    try {
+      handler.onMethodCall(
+          call,
+          new Result() {
+            @Override
+            public void success(Object result) {
+              send(codec.encodeSuccessEnvelope(result));
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+              send(codec.encodeErrorEnvelope(errorCode, errorMessage, errorDetails));
+            }
+
+            @Override
+            public void notImplemented() {
+              stats.recordCall(call.method, callSize, System.nanoTime() - start);
+              reply.reply(null);
+            }
+
+            private void send(ByteBuffer envelope) {
+              // Encoded envelopes end at their position.
+              int size = callSize + envelope.position();
+              stats.recordCall(call.method, size, System.nanoTime() - start);
+              reply.reply(envelope);
+            }
+          });
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Failed to handle method call", e);
+      reply.reply(codec.encodeErrorEnvelope("error", e.getMessage(), null));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations.
+ *
+ * <p>As in HdrHistogram, buckets get wider as their values grow: every power of two of
+ * microseconds is split into {@link #SUB_BUCKETS} buckets, so that each value is known to within
+ * an eighth of it, with a fixed number of buckets from a microsecond up to hours.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values below this many microseconds have a bucket each.
+  private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+  private static final int LINEAR_BITS = 4;
+  private static final int BUCKETS = LINEAR_BUCKETS + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  void recordNanos(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    counts.incrementAndGet(bucketOf(micros));
+    count.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    totalMicros.set(0);
+    maxMicros.set(0);
+  }
+
+  /**
+   * Returns the number of recorded values, their total and maximum, and their 50th, 90th and 99th
+   * percentiles, all in microseconds. Values recorded meanwhile may be partly counted.
+   */
+  Map<String, Object> toMap() {
+    Map<String, Object> map = new HashMap<>();
+    map.put("count", count.get());
+    map.put("totalMicros", totalMicros.get());
+    map.put("maxMicros", maxMicros.get());
+    map.put("p50Micros", percentile(0.5));
+    map.put("p90Micros", percentile(0.9));
+    map.put("p99Micros", percentile(0.99));
+    return map;
+  }
+
+  /** Returns the lower bound of the bucket that holds the given fraction of the values. */
+  private long percentile(double fraction) {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    long target = (long) Math.ceil(total * fraction);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= target && seen > 0) {
+        return lowerBoundOf(i);
+      }
+    }
+    return 0;
+  }
+
+  static int bucketOf(long micros) {
+    if (micros < LINEAR_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowerBoundOf(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+    int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+import com.google.firebase.firestore.Query;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the queries built from the app, path and parameters of query
+ * calls.
+ *
+ * <p>A query can also be registered to get a short id, which later calls can send instead of its
+ * path and parameters. The id stops working once the query has been evicted.
+ *
+ * <p>Only used from the platform thread.
+ */
+final class QueryCache {
+  /** Builds the query that the arguments of a query call describe. */
+  interface Builder {
+    Query build(Map<String, Object> arguments);
+  }
+
+  private static final class Entry {
+    final Query query;
+    int id = -1;
+
+    Entry(Query query) {
+      this.query = query;
+    }
+  }
+
+  private final int maxSize;
+  private final Builder builder;
+  // In access order, so that the eldest entry is the least recently used one.
+  private final LinkedHashMap<String, Entry> entries;
+  private final SparseArray<String> keysById = new SparseArray<>();
+  private int nextId = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  QueryCache(int maxSize, Builder builder) {
+    this.maxSize = maxSize;
+    this.builder = builder;
+    this.entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= QueryCache.this.maxSize) {
+              return false;
+            }
+            evictions++;
+            if (eldest.getValue().id != -1) {
+              keysById.remove(eldest.getValue().id);
+            }
+            return true;
+          }
+        };
+  }
+
+  /** Returns the query described by the {@code app}, {@code path} and {@code parameters}. */
+  Query get(Map<String, Object> arguments) {
+    return getEntry(keyOf(arguments), arguments).query;
+  }
+
+  /** Returns the query registered under {@code id}, or null if it has been evicted. */
+  @Nullable
+  Query get(int id) {
+    String key = keysById.get(id);
+    if (key == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entries.get(key).query;
+  }
+
+  /** Returns the id of the query described by {@code arguments}, registering it if needed. */
+  int register(Map<String, Object> arguments) {
+    String key = keyOf(arguments);
+    Entry entry = getEntry(key, arguments);
+    if (entry.id == -1) {
+      entry.id = nextId++;
+      keysById.put(entry.id, key);
+    }
+    return entry.id;
+  }
+
+  Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("evictions", evictions);
+    stats.put("size", entries.size());
+    return stats;
+  }
+
+  private Entry getEntry(String key, Map<String, Object> arguments) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      hits++;
+      return entry;
+    }
+    misses++;
+    entry = new Entry(builder.build(arguments));
+    entries.put(key, entry);
+    return entry;
+  }
+
+  private static String keyOf(Map<String, Object> arguments) {
+    Map<String, Object> query = new HashMap<>();
+    query.put("app", arguments.get("app"));
+    query.put("path", arguments.get("path"));
+    query.put("parameters", arguments.get("parameters"));
+    return QueryKey.of(query);
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds canonical string keys for the arguments of query calls, so that calls with equal
+ * arguments get equal keys however their maps happen to be ordered.
+ */
+final class QueryKey {
+  private QueryKey() {}
+
+  static String of(Map<String, Object> arguments) {
+    StringBuilder key = new StringBuilder();
+    append(key, arguments);
+    return key.toString();
+  }
+
+  private static void append(StringBuilder key, Object value) {
+    if (value == null) {
+      key.append("null");
+    } else if (value instanceof String) {
+      // Quoted and escaped, so that strings cannot be confused with other values.
+      key.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\""));
+      key.append('"');
+    } else if (value instanceof Map) {
+      key.append('{');
+      for (Map.Entry<?, ?> entry : new TreeMap<>((Map<?, ?>) value).entrySet()) {
+        append(key, entry.getKey());
+        key.append(':');
+        append(key, entry.getValue());
+        key.append(',');
+      }
+      key.append('}');
+    } else if (value instanceof List) {
+      key.append('[');
+      for (Object element : (List<?>) value) {
+        append(key, element);
+        key.append(',');
+      }
+      key.append(']');
+    } else if (value instanceof Date) {
+      key.append("Date:").append(((Date) value).getTime());
+    } else if (value instanceof DocumentReference) {
+      key.append("DocumentReference:").append(((DocumentReference) value).getPath());
+    } else if (value instanceof Blob) {
+      key.append("Blob:").append(Arrays.toString(((Blob) value).toBytes()));
+    } else {
+      // Numbers, booleans and geo points.
+      key.append(value.getClass().getSimpleName()).append(':').append(value);
+    }
+  }
+}
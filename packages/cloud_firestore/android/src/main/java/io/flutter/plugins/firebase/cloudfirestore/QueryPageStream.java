@@ -0,0 +1,136 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import io.flutter.plugin.common.EventChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams the results of a query to the Dart side in pages of a fixed size.
+ *
+ * <p>Each page is read with a query that starts after the last document of the previous page. It
+ * is encoded in the background and sent as soon as it is ready, and only then is the next page
+ * read. At most one page is held at a time, however large the whole result is.
+ */
+final class QueryPageStream {
+  private final Query query;
+  private final int pageSize;
+  private final Executor executor;
+  private final Handler mainHandler;
+  // Documents left to send, if the query has a limit, or Long.MAX_VALUE otherwise.
+  private long remaining;
+  private int messageSize = ByteBufferPool.MIN_CAPACITY;
+  private EventChannel.EventSink events;
+  private volatile boolean cancelled = false;
+
+  QueryPageStream(Query query, int pageSize, long limit, Executor executor, Handler mainHandler) {
+    this.query = query;
+    this.pageSize = pageSize;
+    this.remaining = limit;
+    this.executor = executor;
+    this.mainHandler = mainHandler;
+  }
+
+  /** Starts reading pages and sending them to {@code events}. Called on the platform thread. */
+  void start(EventChannel.EventSink events) {
+    this.events = events;
+    if (remaining <= 0) {
+      events.endOfStream();
+      return;
+    }
+    readPage(query);
+  }
+
+  /** Stops reading pages. Pages that are already being read are dropped. */
+  void cancel() {
+    cancelled = true;
+  }
+
+  private void readPage(Query pageQuery) {
+    final int pageLimit = (int) Math.min(pageSize, remaining);
+    pageQuery
+        .limit(pageLimit)
+        .get()
+        .addOnCompleteListener(
+            executor,
+            new OnCompleteListener<QuerySnapshot>() {
+              @Override
+              public void onComplete(@NonNull Task<QuerySnapshot> task) {
+                if (cancelled) {
+                  return;
+                }
+                if (!task.isSuccessful()) {
+                  sendError(task.getException().getMessage());
+                  return;
+                }
+                List<DocumentSnapshot> documents = task.getResult().getDocuments();
+                remaining -= documents.size();
+                boolean last = documents.size() < pageLimit || remaining == 0;
+                sendPage(encodePage(documents), last);
+                if (!last) {
+                  readPage(query.startAfter(documents.get(documents.size() - 1)));
+                }
+              }
+            });
+  }
+
+  private byte[] encodePage(List<DocumentSnapshot> documents) {
+    Map<String, Object> page = new HashMap<>();
+    List<String> paths = new ArrayList<>(documents.size());
+    List<Map<String, Object>> data = new ArrayList<>(documents.size());
+    for (DocumentSnapshot document : documents) {
+      paths.add(document.getReference().getPath());
+      data.add(document.getData());
+    }
+    page.put("paths", paths);
+    page.put("documents", data);
+    byte[] encoded = DirectMessageEncoder.encodeToBytes(page, messageSize);
+    messageSize = encoded.length;
+    return encoded;
+  }
+
+  private void sendPage(final byte[] page, final boolean last) {
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (cancelled) {
+              return;
+            }
+            events.success(page);
+            if (last) {
+              events.endOfStream();
+            }
+          }
+        });
+  }
+
+  private void sendError(final String message) {
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (cancelled) {
+              return;
+            }
+            events.error("Error performing getDocumentPages", message, null);
+            // Ends the stream like the last page does, so that the Dart side cancels it and the
+            // handle is released.
+            events.endOfStream();
+          }
+        });
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} that runs its tasks one at a time, in submission order, on a shared backing
+ * executor.
+ *
+ * <p>Each listener gets its own instance so that snapshots are converted and encoded in the
+ * background without being reordered.
+ */
+final class SerialExecutor implements Executor {
+  private final Executor backingExecutor;
+  private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+  private Runnable active;
+
+  SerialExecutor(Executor backingExecutor) {
+    this.backingExecutor = backingExecutor;
+  }
+
+  @Override
+  public synchronized void execute(@NonNull final Runnable task) {
+    tasks.add(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              task.run();
+            } finally {
+              scheduleNext();
+            }
+          }
+        });
+    if (active == null) {
+      scheduleNext();
+    }
+  }
+
+  private synchronized void scheduleNext() {
+    active = tasks.poll();
+    if (active != null) {
+      backingExecutor.execute(active);
+    }
+  }
+}
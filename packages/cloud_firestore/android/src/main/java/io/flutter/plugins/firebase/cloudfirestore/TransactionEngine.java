@@ -0,0 +1,306 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Transaction;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs Firestore transactions whose reads and writes are sent from Dart.
+ *
+ * <p>The operations of a transaction run one at a time, in the order they were received, on a
+ * small pool owned by this class rather than on the process-wide serial {@code AsyncTask}
+ * executor. Several operations can be sent in a single message with {@link #execute}.
+ *
+ * <p>A {@link Transaction} is only valid while its update function runs, so the SDK thread that
+ * runs the function still waits, up to the transaction timeout, for the Dart handler to finish.
+ */
+final class TransactionEngine {
+  // Operations of different transactions run concurrently on at most this many threads.
+  private static final int THREADS = 4;
+
+  private final MethodChannel channel;
+  private final Handler mainHandler;
+  private final ThreadPoolExecutor executor;
+  // The current attempt of each running transaction, by transaction id.
+  private final SparseArray<Attempt> attempts = new SparseArray<>();
+
+  private final AtomicLong started = new AtomicLong();
+  private final AtomicLong committed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong timedOut = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong totalLatencyMillis = new AtomicLong();
+  private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+  /** One run of the update function of a transaction. */
+  private static final class Attempt {
+    final FirebaseFirestore firestore;
+    final Transaction transaction;
+    final SerialExecutor executor;
+    final TaskCompletionSource<Map<String, Object>> completion = new TaskCompletionSource<>();
+
+    Attempt(FirebaseFirestore firestore, Transaction transaction, SerialExecutor executor) {
+      this.firestore = firestore;
+      this.transaction = transaction;
+      this.executor = executor;
+    }
+  }
+
+  TransactionEngine(MethodChannel channel, Handler mainHandler) {
+    this.channel = channel;
+    this.mainHandler = mainHandler;
+    this.executor =
+        new ThreadPoolExecutor(
+            THREADS, THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Runs a transaction, asking the Dart side to perform its operations on each attempt, and
+   * reports the result of the Dart handler once the transaction has committed.
+   */
+  void run(
+      final FirebaseFirestore firestore,
+      final Map<String, Object> arguments,
+      final Result result) {
+    final int transactionId = (Integer) arguments.get("transactionId");
+    final long timeout = ((Number) arguments.get("transactionTimeout")).longValue();
+    final long startTime = SystemClock.elapsedRealtime();
+    started.incrementAndGet();
+    firestore
+        .runTransaction(
+            new Transaction.Function<Map<String, Object>>() {
+              // Attempts run one after another, so this needs no synchronization.
+              private boolean firstAttempt = true;
+
+              @Override
+              public Map<String, Object> apply(@NonNull Transaction transaction)
+                  throws FirebaseFirestoreException {
+                if (!firstAttempt) {
+                  retries.incrementAndGet();
+                }
+                firstAttempt = false;
+                final Attempt attempt =
+                    new Attempt(firestore, transaction, new SerialExecutor(executor));
+                synchronized (attempts) {
+                  attempts.put(transactionId, attempt);
+                }
+                mainHandler.post(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        doTransaction(arguments, attempt);
+                      }
+                    });
+                try {
+                  return Tasks.await(attempt.completion.getTask(), timeout, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                  timedOut.incrementAndGet();
+                  throw new FirebaseFirestoreException(
+                      "Transaction timed out", FirebaseFirestoreException.Code.DEADLINE_EXCEEDED);
+                } catch (ExecutionException | InterruptedException e) {
+                  throw new FirebaseFirestoreException(
+                      "Do transaction failed.", FirebaseFirestoreException.Code.UNKNOWN);
+                } finally {
+                  synchronized (attempts) {
+                    if (attempts.get(transactionId) == attempt) {
+                      attempts.remove(transactionId);
+                    }
+                  }
+                }
+              }
+            })
+        .addOnCompleteListener(
+            new OnCompleteListener<Map<String, Object>>() {
+              @Override
+              public void onComplete(@NonNull Task<Map<String, Object>> task) {
+                recordLatency(SystemClock.elapsedRealtime() - startTime);
+                if (task.isSuccessful()) {
+                  committed.incrementAndGet();
+                  result.success(task.getResult());
+                } else {
+                  failed.incrementAndGet();
+                  result.error(
+                      "Error performing transaction", task.getException().getMessage(), null);
+                }
+              }
+            });
+  }
+
+  private void doTransaction(Map<String, Object> arguments, final Attempt attempt) {
+    channel.invokeMethod(
+        "DoTransaction",
+        arguments,
+        new Result() {
+          @SuppressWarnings("unchecked")
+          @Override
+          public void success(Object doTransactionResult) {
+            attempt.completion.trySetResult((Map<String, Object>) doTransactionResult);
+          }
+
+          @Override
+          public void error(String errorCode, String errorMessage, Object errorDetails) {
+            attempt.completion.trySetException(new Exception("Do transaction failed."));
+          }
+
+          @Override
+          public void notImplemented() {
+            attempt.completion.trySetException(new Exception("DoTransaction not implemented"));
+          }
+        });
+  }
+
+  /**
+   * Runs a single operation, such as {@code {"type": "get", "path": "foo/bar"}}, on the
+   * transaction with the given id and reports its result.
+   */
+  void executeOne(int transactionId, Map<String, Object> operation, Result result) {
+    List<Map<String, Object>> operations = new ArrayList<>(1);
+    operations.add(operation);
+    enqueue(transactionId, operations, true, result);
+  }
+
+  /**
+   * Runs {@code operations} in order on the transaction with the given id and reports their
+   * results as one list, with a snapshot for each get and null for each write. The first operation
+   * that fails stops the others and is reported as the error.
+   */
+  void execute(int transactionId, List<Map<String, Object>> operations, Result result) {
+    enqueue(transactionId, operations, false, result);
+  }
+
+  private void enqueue(
+      int transactionId,
+      final List<Map<String, Object>> operations,
+      final boolean single,
+      final Result result) {
+    final Attempt attempt;
+    synchronized (attempts) {
+      attempt = attempts.get(transactionId);
+    }
+    final String description =
+        single ? "Transaction#" + operations.get(0).get("type") : "Transaction#execute";
+    if (attempt == null) {
+      result.error(
+          "Error performing " + description,
+          "Transaction " + transactionId + " is not running",
+          null);
+      return;
+    }
+    attempt.executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            final List<Object> results = new ArrayList<>(operations.size());
+            try {
+              for (Map<String, Object> operation : operations) {
+                results.add(apply(attempt, operation));
+              }
+            } catch (final FirebaseFirestoreException | RuntimeException e) {
+              mainHandler.post(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      result.error("Error performing " + description, e.getMessage(), null);
+                    }
+                  });
+              return;
+            }
+            mainHandler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    result.success(single ? results.get(0) : results);
+                  }
+                });
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object apply(Attempt attempt, Map<String, Object> operation)
+      throws FirebaseFirestoreException {
+    String type = (String) operation.get("type");
+    DocumentReference reference = attempt.firestore.document((String) operation.get("path"));
+    Map<String, Object> data = (Map<String, Object>) operation.get("data");
+    switch (type) {
+      case "get":
+        {
+          DocumentSnapshot documentSnapshot = attempt.transaction.get(reference);
+          Map<String, Object> snapshotMap = new HashMap<>();
+          snapshotMap.put("path", documentSnapshot.getReference().getPath());
+          if (documentSnapshot.exists()) {
+            snapshotMap.put("data", documentSnapshot.getData());
+          } else {
+            snapshotMap.put("data", null);
+          }
+          return snapshotMap;
+        }
+      case "set":
+        attempt.transaction.set(reference, data);
+        return null;
+      case "update":
+        attempt.transaction.update(reference, data);
+        return null;
+      case "delete":
+        attempt.transaction.delete(reference);
+        return null;
+      default:
+        throw new IllegalArgumentException("Unknown transaction operation: " + type);
+    }
+  }
+
+  private void recordLatency(long latencyMillis) {
+    totalLatencyMillis.addAndGet(latencyMillis);
+    long max = maxLatencyMillis.get();
+    while (latencyMillis > max && !maxLatencyMillis.compareAndSet(max, latencyMillis)) {
+      max = maxLatencyMillis.get();
+    }
+  }
+
+  /** Returns the number of transactions whose update function is running. */
+  int getRunningCount() {
+    synchronized (attempts) {
+      return attempts.size();
+    }
+  }
+
+  /** Returns the counters of the transactions run so far. */
+  Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("started", started.get());
+    stats.put("committed", committed.get());
+    stats.put("failed", failed.get());
+    stats.put("timedOut", timedOut.get());
+    stats.put("retries", retries.get());
+    stats.put("totalLatencyMillis", totalLatencyMillis.get());
+    stats.put("maxLatencyMillis", maxLatencyMillis.get());
+    return stats;
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this package that match the {@code jmh} Gradle property, e.g.
+ *
+ * <pre>./gradlew app:jmh -Pjmh=FirestoreMessageCodec</pre>
+ *
+ * <p>Throughput and allocation rate (from the GC profiler) are written as JSON to {@code
+ * build/reports/jmh/results.json}, to be compared with the results of another commit.
+ */
+public class CodecBenchmarks {
+  /** Takes the benchmark name pattern and the path of the results file. */
+  public static void main(String[] args) throws RunnerException {
+    Options options =
+        new OptionsBuilder()
+            .include(args[0])
+            // Each benchmark runs in a fresh JVM, which inherits the classpath of this one.
+            .forks(1)
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(args[1])
+            .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.GeoPoint;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Decodes the output of {@link DirectMessageEncoder} with {@link FirestoreMessageCodec}.
+ *
+ * <p>Document references are left out, since decoding them needs an initialized {@link
+ * com.google.firebase.FirebaseApp}.
+ */
+public class DirectMessageEncoderTest {
+  @Test
+  public void querySnapshotRoundTrips() {
+    List<String> paths = new ArrayList<>();
+    List<Object> documents = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      paths.add("users/alice/posts/post" + i);
+      documents.add(createDocument(i));
+    }
+    Map<String, Object> change = new HashMap<>();
+    change.put("type", "DocumentChangeType.added");
+    change.put("oldIndex", -1);
+    change.put("newIndex", 0);
+    change.put("path", "users/alice/posts/post0");
+    change.put("document", createDocument(0));
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("paths", paths);
+    snapshot.put("documents", documents);
+    snapshot.put("documentChanges", Arrays.asList(change));
+
+    assertEquals(snapshot, roundTrip(snapshot));
+  }
+
+  @Test
+  public void sharedParentPathIsSentOnce() {
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      paths.add("a/long/collection/path/that/repeats/" + i);
+    }
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("paths", paths);
+
+    byte[] encoded = DirectMessageEncoder.encodeToBytes(snapshot, ByteBufferPool.MIN_CAPACITY);
+    assertEquals(snapshot, decode(encoded));
+    assertTrue(encoded.length < 100 * "a/long/collection/path/that/repeats/".length());
+  }
+
+  @Test
+  public void documentDataIsEncodedAsByFirestoreMessageCodec() {
+    Map<String, Object> data = createDocument(7);
+    data.put("path", "not/a/document/path");
+    data.put("paths", Arrays.asList("user/text", "with/slashes"));
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("data", data);
+
+    byte[] encoded = DirectMessageEncoder.encodeToBytes(snapshot, ByteBufferPool.MIN_CAPACITY);
+    ByteBuffer expected = FirestoreMessageCodec.INSTANCE.encodeMessage(snapshot);
+    byte[] expectedBytes = new byte[expected.position()];
+    expected.flip();
+    expected.get(expectedBytes);
+    assertArrayEquals(expectedBytes, encoded);
+    assertEquals(snapshot, decode(encoded));
+  }
+
+  @Test
+  public void growsPastSizeHint() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      text.append("é中😀");
+    }
+    Map<String, Object> data = new HashMap<>();
+    data.put("text", text.toString());
+    data.put("values", new double[] {1.5, -2.25});
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("path", "rooms/room1");
+    snapshot.put("data", data);
+
+    Map<?, ?> decoded = (Map<?, ?>) roundTrip(snapshot);
+    assertEquals("rooms/room1", decoded.get("path"));
+    Map<?, ?> decodedData = (Map<?, ?>) decoded.get("data");
+    assertEquals(text.toString(), decodedData.get("text"));
+    assertArrayEquals(new double[] {1.5, -2.25}, (double[]) decodedData.get("values"), 0);
+  }
+
+  private static Map<String, Object> createDocument(int index) {
+    Map<String, Object> nested = new HashMap<>();
+    nested.put("url", "https://example.com/" + index);
+    nested.put("list", Arrays.asList(1, 2L, 3.5, null, true));
+    Map<String, Object> document = new HashMap<>();
+    document.put("title", "Post " + index);
+    document.put("slashes", "a/b/" + index);
+    document.put("created", new Date(1525000000000L + index));
+    document.put("location", new GeoPoint(index * 0.5, -index * 0.25));
+    document.put("thumbnail", Blob.fromBytes(new byte[] {(byte) index, 1, 2}));
+    document.put("nested", nested);
+    return document;
+  }
+
+  private static Object roundTrip(Object value) {
+    return decode(DirectMessageEncoder.encodeToBytes(value, ByteBufferPool.MIN_CAPACITY));
+  }
+
+  private static Object decode(byte[] encoded) {
+    return FirestoreMessageCodec.INSTANCE.decodeMessage(ByteBuffer.wrap(encoded));
+  }
+}
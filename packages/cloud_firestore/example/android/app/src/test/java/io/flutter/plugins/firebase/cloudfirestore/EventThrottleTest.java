@@ -0,0 +1,127 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class EventThrottleTest {
+  private static final long WINDOW_MILLIS = 100;
+
+  private final Executor directExecutor =
+      new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          command.run();
+        }
+      };
+
+  private Handler handler;
+  private EventThrottle.Counters counters;
+  private int flushes;
+
+  @Before
+  public void setUp() {
+    handler = mock(Handler.class);
+    counters = new EventThrottle.Counters();
+    flushes = 0;
+  }
+
+  @Test
+  public void queryEventsInOneWindowAreMerged() {
+    EventThrottle throttle = createThrottle(true, true);
+    assertTrue(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+
+    endWindow();
+    assertEquals(1, flushes);
+    assertEquals(3, counters.mergedEvents.get());
+    assertEquals(0, counters.droppedEvents.get());
+
+    // A window without events closes, and the next event is sent right away.
+    endWindow();
+    assertEquals(1, flushes);
+    assertTrue(throttle.onEvent());
+  }
+
+  @Test
+  public void replacedDocumentEventsAreDropped() {
+    EventThrottle throttle = createThrottle(true, false);
+    assertTrue(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+
+    endWindow();
+    assertEquals(1, flushes);
+    assertEquals(1, counters.mergedEvents.get());
+    assertEquals(2, counters.droppedEvents.get());
+  }
+
+  @Test
+  public void debouncedEventsAreAllHeldBack() {
+    EventThrottle throttle = createThrottle(false, true);
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+
+    endWindow();
+    assertEquals(1, flushes);
+    assertEquals(3, counters.mergedEvents.get());
+    assertEquals(0, counters.droppedEvents.get());
+  }
+
+  @Test
+  public void cancelDropsHeldEvents() {
+    EventThrottle throttle = createThrottle(true, true);
+    assertTrue(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+    assertFalse(throttle.onEvent());
+
+    throttle.cancel();
+    endWindow();
+    assertEquals(0, flushes);
+    assertEquals(0, counters.mergedEvents.get());
+    assertEquals(2, counters.droppedEvents.get());
+  }
+
+  private EventThrottle createThrottle(boolean leading, boolean mergesReplacedEvents) {
+    return new EventThrottle(
+        handler,
+        directExecutor,
+        WINDOW_MILLIS,
+        leading,
+        mergesReplacedEvents,
+        counters,
+        new EventThrottle.Callback() {
+          @Override
+          public void flush() {
+            flushes++;
+          }
+        });
+  }
+
+  /** Runs the end of the window that was scheduled last. */
+  private void endWindow() {
+    ArgumentCaptor<Runnable> windowEnds = ArgumentCaptor.forClass(Runnable.class);
+    verify(handler, atLeastOnce()).postDelayed(windowEnds.capture(), eq(WINDOW_MILLIS));
+    List<Runnable> scheduled = windowEnds.getAllValues();
+    scheduled.get(scheduled.size() - 1).run();
+  }
+}
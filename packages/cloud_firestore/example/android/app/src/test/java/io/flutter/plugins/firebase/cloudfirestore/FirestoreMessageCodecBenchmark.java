@@ -0,0 +1,242 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+import io.flutter.plugin.common.StandardMessageCodec;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link FirestoreMessageCodec} and {@link DirectMessageEncoder} on
+ * synthetic documents of several shapes, and of {@link StandardMessageCodec} on the shapes that it
+ * can encode too.
+ *
+ * <p>The documents are built the same way on every run and the iterations are fixed, so that the
+ * results of {@link CodecBenchmarks} can be compared across commits.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class FirestoreMessageCodecBenchmark {
+  private static final int LIST_SIZE = 1000;
+  private static final int FLAT_FIELDS = 50;
+  private static final int NESTING_DEPTH = 16;
+  private static final int SNAPSHOT_DOCUMENTS = 300;
+
+  @State(Scope.Thread)
+  public static class EncodeState {
+    @Param({"flat", "nested", "geoPoints", "dates", "blobs", "references", "querySnapshot"})
+    String shape;
+
+    Object document;
+    // The size of the previous message, which listeners pass as the size hint of the next one.
+    int messageSize = ByteBufferPool.MIN_CAPACITY;
+
+    @Setup
+    public void setUp() {
+      document = createDocument(shape);
+    }
+  }
+
+  /**
+   * Decoding document references needs an initialized {@link FirebaseApp}, which unit tests do not
+   * have, so they are only encoded.
+   */
+  @State(Scope.Thread)
+  public static class DecodeState {
+    @Param({"flat", "nested", "geoPoints", "dates", "blobs"})
+    String decodedShape;
+
+    ByteBuffer message;
+
+    @Setup
+    public void setUp() {
+      message = FirestoreMessageCodec.INSTANCE.encodeMessage(createDocument(decodedShape));
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class StandardState {
+    @Param({"flat", "nested"})
+    String standardShape;
+
+    Object document;
+    ByteBuffer message;
+
+    @Setup
+    public void setUp() {
+      document = createDocument(standardShape);
+      message = StandardMessageCodec.INSTANCE.encodeMessage(document);
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer encode(EncodeState state) {
+    return FirestoreMessageCodec.INSTANCE.encodeMessage(state.document);
+  }
+
+  @Benchmark
+  public int directEncode(EncodeState state) {
+    ByteBuffer message =
+        DirectMessageEncoder.encodeMethodCall("QuerySnapshot", state.document, state.messageSize);
+    state.messageSize = message.position();
+    DirectMessageEncoder.release(message);
+    return state.messageSize;
+  }
+
+  @Benchmark
+  public Object decode(DecodeState state) {
+    state.message.rewind();
+    return FirestoreMessageCodec.INSTANCE.decodeMessage(state.message);
+  }
+
+  @Benchmark
+  public ByteBuffer standardEncode(StandardState state) {
+    return StandardMessageCodec.INSTANCE.encodeMessage(state.document);
+  }
+
+  @Benchmark
+  public Object standardDecode(StandardState state) {
+    state.message.rewind();
+    return StandardMessageCodec.INSTANCE.decodeMessage(state.message);
+  }
+
+  static Object createDocument(String shape) {
+    switch (shape) {
+      case "flat":
+        return createFlatDocument();
+      case "nested":
+        {
+          Map<String, Object> document = createFlatDocument();
+          Map<String, Object> parent = document;
+          for (int depth = 0; depth < NESTING_DEPTH; depth++) {
+            Map<String, Object> child = new HashMap<>();
+            child.put("depth", depth);
+            child.put("name", "level " + depth);
+            child.put("values", createList(8));
+            parent.put("child", child);
+            parent = child;
+          }
+          return document;
+        }
+      case "geoPoints":
+        {
+          List<Object> points = new ArrayList<>(LIST_SIZE);
+          for (int i = 0; i < LIST_SIZE; i++) {
+            points.add(new GeoPoint(-90.0 + i * 0.18, -180.0 + i * 0.36));
+          }
+          return points;
+        }
+      case "dates":
+        {
+          List<Object> dates = new ArrayList<>(LIST_SIZE);
+          for (int i = 0; i < LIST_SIZE; i++) {
+            dates.add(new Date(1525000000000L + i * 60000L));
+          }
+          return dates;
+        }
+      case "blobs":
+        {
+          List<Object> blobs = new ArrayList<>(LIST_SIZE);
+          for (int i = 0; i < LIST_SIZE; i++) {
+            byte[] bytes = new byte[64];
+            for (int j = 0; j < bytes.length; j++) {
+              bytes[j] = (byte) (i + j);
+            }
+            blobs.add(Blob.fromBytes(bytes));
+          }
+          return blobs;
+        }
+      case "references":
+        return createReferences();
+      case "querySnapshot":
+        {
+          List<Object> paths = new ArrayList<>(SNAPSHOT_DOCUMENTS);
+          List<Object> documents = new ArrayList<>(SNAPSHOT_DOCUMENTS);
+          for (int i = 0; i < SNAPSHOT_DOCUMENTS; i++) {
+            paths.add("users/user" + (i % 10) + "/posts/post" + i);
+            documents.add(createFlatDocument());
+          }
+          Map<String, Object> snapshot = new HashMap<>();
+          snapshot.put("paths", paths);
+          snapshot.put("documents", documents);
+          return snapshot;
+        }
+      default:
+        throw new IllegalArgumentException("Unknown document shape: " + shape);
+    }
+  }
+
+  private static Map<String, Object> createFlatDocument() {
+    Map<String, Object> document = new HashMap<>();
+    for (int i = 0; i < FLAT_FIELDS; i++) {
+      switch (i % 4) {
+        case 0:
+          document.put("string" + i, "value " + i);
+          break;
+        case 1:
+          document.put("int" + i, i);
+          break;
+        case 2:
+          document.put("double" + i, i * 0.25);
+          break;
+        default:
+          document.put("bool" + i, i % 8 == 3);
+      }
+    }
+    return document;
+  }
+
+  private static List<Object> createList(int size) {
+    List<Object> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(i);
+    }
+    return list;
+  }
+
+  /**
+   * References are mocks, since real ones need an initialized {@link FirebaseApp}. The codecs only
+   * read their path and app name, so the stubbed calls cost the same on every commit.
+   */
+  private static List<Object> createReferences() {
+    FirebaseApp app = mock(FirebaseApp.class);
+    when(app.getName()).thenReturn("[DEFAULT]");
+    FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+    when(firestore.getApp()).thenReturn(app);
+    List<Object> references = new ArrayList<>(LIST_SIZE);
+    for (int i = 0; i < LIST_SIZE; i++) {
+      DocumentReference reference = mock(DocumentReference.class);
+      when(reference.getPath()).thenReturn("users/user" + (i % 10) + "/posts/post" + i);
+      when(reference.getFirestore()).thenReturn(firestore);
+      references.add(reference);
+    }
+    return references;
+  }
+}
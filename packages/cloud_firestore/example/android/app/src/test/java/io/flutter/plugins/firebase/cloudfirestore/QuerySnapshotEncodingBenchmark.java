@@ -0,0 +1,113 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the cost of sending a full query snapshot with the cost of sending only its document
+ * changes, for a large listener whose update touches a single document.
+ */
+public class QuerySnapshotEncodingBenchmark {
+  private static final int DOCUMENT_COUNT = 5000;
+  private static final int WARMUP_ITERATIONS = 20;
+  private static final int MEASURED_ITERATIONS = 50;
+
+  private QuerySnapshot snapshot;
+
+  @Before
+  public void setUp() {
+    List<DocumentSnapshot> documents = new ArrayList<>();
+    for (int i = 0; i < DOCUMENT_COUNT; i++) {
+      documents.add(mockDocument("items/" + i, i));
+    }
+    DocumentChange change = mock(DocumentChange.class);
+    QueryDocumentSnapshot changed = mockDocument("items/42", -1);
+    when(change.getType()).thenReturn(DocumentChange.Type.MODIFIED);
+    when(change.getOldIndex()).thenReturn(42);
+    when(change.getNewIndex()).thenReturn(42);
+    when(change.getDocument()).thenReturn(changed);
+
+    snapshot = mock(QuerySnapshot.class);
+    when(snapshot.getDocuments()).thenReturn(documents);
+    when(snapshot.getDocumentChanges()).thenReturn(Collections.singletonList(change));
+  }
+
+  @Test
+  public void deltaEncodingOfSingleEdit() {
+    Measurement full = measure(false);
+    Measurement delta = measure(true);
+    // A single change costs the same however many documents the query has. Times are only
+    // reported, since they depend on the machine running the test.
+    assertTrue("full: " + full + ", delta: " + delta, delta.bytes * 100 < full.bytes);
+  }
+
+  private Measurement measure(boolean delta) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      encode(delta);
+    }
+    int bytes = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      bytes = encode(delta);
+    }
+    return new Measurement(bytes, (System.nanoTime() - start) / MEASURED_ITERATIONS);
+  }
+
+  private int encode(boolean delta) {
+    Map<String, Object> arguments =
+        delta
+            ? CloudFirestorePlugin.parseQuerySnapshotDelta(snapshot)
+            : CloudFirestorePlugin.parseQuerySnapshot(snapshot);
+    ByteBuffer message = FirestoreMessageCodec.INSTANCE.encodeMessage(arguments);
+    return message.capacity();
+  }
+
+  private static QueryDocumentSnapshot mockDocument(String path, int index) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("title", "Item " + index);
+    data.put("index", index);
+    data.put("price", index * 0.5);
+    data.put("tags", Arrays.asList("a", "b", "c"));
+    DocumentReference reference = mock(DocumentReference.class);
+    when(reference.getPath()).thenReturn(path);
+    QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+    when(document.getData()).thenReturn(data);
+    when(document.getReference()).thenReturn(reference);
+    return document;
+  }
+
+  private static final class Measurement {
+    final int bytes;
+    final long nanos;
+
+    Measurement(int bytes, long nanos) {
+      this.bytes = bytes;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+      return bytes + " bytes in " + nanos / 1000 + " us";
+    }
+  }
+}
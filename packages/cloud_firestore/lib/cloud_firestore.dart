@@ -21,6 +21,7 @@ part 'src/collection_reference.dart';
 part 'src/blob.dart';
 part 'src/document_change.dart';
 part 'src/document_snapshot.dart';
+part 'src/document_read_result.dart';
 part 'src/document_reference.dart';
 part 'src/firestore.dart';
 part 'src/geo_point.dart';
@@ -29,5 +30,6 @@ part 'src/query_snapshot.dart';
 part 'src/set_options.dart';
 part 'src/firestore_message_codec.dart';
 part 'src/snapshot_metadata.dart';
+part 'src/source.dart';
 part 'src/transaction.dart';
 part 'src/write_batch.dart';
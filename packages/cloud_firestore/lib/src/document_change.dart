@@ -35,6 +35,12 @@ class DocumentChange {
           return type.toString() == data['type'];
         });
 
+  DocumentChange._withDocument(DocumentChange change, this.document)
+      : _firestore = change._firestore,
+        type = change.type,
+        oldIndex = change.oldIndex,
+        newIndex = change.newIndex;
+
   final Firestore _firestore;
 
   /// The type of change that occurred (added, modified, or removed).
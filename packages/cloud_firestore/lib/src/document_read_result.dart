@@ -0,0 +1,19 @@
+// Copyright 2018, the Chromium project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+part of cloud_firestore;
+
+/// The outcome of reading one document with [Firestore.getAll].
+class DocumentReadResult {
+  DocumentReadResult._(this.reference, this.snapshot, this.error);
+
+  /// The document that was read.
+  final DocumentReference reference;
+
+  /// The snapshot of the document, or null if the read failed.
+  final DocumentSnapshot snapshot;
+
+  /// The error the read failed with, or null if it succeeded.
+  final PlatformException error;
+}
@@ -65,10 +65,25 @@ class DocumentReference {
   /// Reads the document referenced by this [DocumentReference].
   ///
   /// If no document exists, the read will return null.
-  Future<DocumentSnapshot> get() async {
+  ///
+  /// If [select] is set, the snapshot only has the fields at those paths,
+  /// e.g. `'name'` or `'address.city'`. Only supported on Android.
+  ///
+  /// [source] sets whether the read may use the local cache or the server.
+  /// Only supported on Android.
+  Future<DocumentSnapshot> get({
+    List<String> select,
+    Source source: Source.serverAndCache,
+  }) async {
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'app': firestore.app.name,
+      'path': path,
+    };
+    if (select != null) arguments['select'] = select;
+    _addSource(arguments, source);
     final Map<dynamic, dynamic> data = await Firestore.channel.invokeMethod(
       'DocumentReference#get',
-      <String, dynamic>{'app': firestore.app.name, 'path': path},
+      arguments,
     );
     return new DocumentSnapshot._(
       data['path'],
@@ -94,21 +109,45 @@ class DocumentReference {
   }
 
   /// Notifies of documents at this location
+  Stream<DocumentSnapshot> get snapshots => getSnapshots();
+
+  /// Notifies of documents at this location.
+  ///
+  /// If [maxEventsPerSecond] or [debounce] is set, snapshots of busy documents
+  /// are coalesced by the platform side: within each window, only the latest
+  /// snapshot is sent. With [maxEventsPerSecond], the first snapshot of a
+  /// window is sent right away; with [debounce], it is sent at the end of the
+  /// window.
+  ///
+  /// If [select] is set, snapshots only have the fields at those paths. Only
+  /// supported on Android.
   // TODO(jackson): Reduce code duplication with [Query]
-  Stream<DocumentSnapshot> get snapshots {
+  Stream<DocumentSnapshot> getSnapshots({
+    int maxEventsPerSecond,
+    Duration debounce,
+    List<String> select,
+  }) {
+    assert(maxEventsPerSecond == null || debounce == null);
     Future<int> _handle;
     // It's fine to let the StreamController be garbage collected once all the
     // subscribers have cancelled; this analyzer warning is safe to ignore.
     StreamController<DocumentSnapshot> controller; // ignore: close_sinks
     controller = new StreamController<DocumentSnapshot>.broadcast(
       onListen: () {
-        _handle = Firestore.channel.invokeMethod(
-          'Query#addDocumentListener',
-          <String, dynamic>{
-            'app': firestore.app.name,
-            'path': path,
-          },
-        ).then<int>((dynamic result) => result);
+        final Map<String, dynamic> arguments = <String, dynamic>{
+          'app': firestore.app.name,
+          'path': path,
+        };
+        if (select != null) arguments['select'] = select;
+        if (maxEventsPerSecond != null) {
+          arguments['maxEventsPerSecond'] = maxEventsPerSecond;
+        }
+        if (debounce != null) {
+          arguments['debounceMillis'] = debounce.inMilliseconds;
+        }
+        _handle = Firestore.channel
+            .invokeMethod('Query#addDocumentListener', arguments)
+            .then<int>((dynamic result) => result);
         _handle.then((int handle) {
           Firestore._documentObservers[handle] = controller;
         });
@@ -119,7 +158,7 @@ class DocumentReference {
             'Query#removeListener',
             <String, dynamic>{'handle': handle},
           );
-          Firestore._queryObservers.remove(handle);
+          Firestore._documentObservers.remove(handle);
         });
       },
     );
@@ -17,6 +17,11 @@ class Firestore {
   static final Map<int, StreamController<QuerySnapshot>> _queryObservers =
       <int, StreamController<QuerySnapshot>>{};
 
+  /// Latest snapshot of each delta encoded query listener, to which the
+  /// document changes of the next snapshot are applied.
+  static final Map<int, QuerySnapshot> _querySnapshots =
+      <int, QuerySnapshot>{};
+
   static final Map<int, StreamController<DocumentSnapshot>> _documentObservers =
       <int, StreamController<DocumentSnapshot>>{};
 
@@ -30,16 +35,30 @@ class Firestore {
     if (_initialized) return;
     channel.setMethodCallHandler((MethodCall call) {
       if (call.method == 'QuerySnapshot') {
-        final QuerySnapshot snapshot =
-            new QuerySnapshot._(call.arguments, this);
-        _queryObservers[call.arguments['handle']].add(snapshot);
+        // Listeners of the same query share snapshots, which then carry the
+        // handles of all of them.
+        final List<dynamic> handles =
+            call.arguments['handles'] ?? <dynamic>[call.arguments['handle']];
+        final dynamic delta = call.arguments['delta'];
+        QuerySnapshot fullSnapshot;
+        for (int handle in handles) {
+          // Snapshots encoded in the background may still arrive after the
+          // listener has been removed.
+          if (!_queryObservers.containsKey(handle)) continue;
+          final QuerySnapshot snapshot = delta == true
+              ? new QuerySnapshot._applyDelta(
+                  _querySnapshots[handle], call.arguments, this)
+              : fullSnapshot ??= new QuerySnapshot._(call.arguments, this);
+          if (delta != null) _querySnapshots[handle] = snapshot;
+          _queryObservers[handle].add(snapshot);
+        }
       } else if (call.method == 'DocumentSnapshot') {
         final DocumentSnapshot snapshot = new DocumentSnapshot._(
           call.arguments['path'],
           _asStringKeyedMap(call.arguments['data']),
           this,
         );
-        _documentObservers[call.arguments['handle']].add(snapshot);
+        _documentObservers[call.arguments['handle']]?.add(snapshot);
       } else if (call.method == 'DoTransaction') {
         final int transactionId = call.arguments['transactionId'];
         return _transactionHandlers[transactionId](
@@ -83,6 +102,156 @@ class Firestore {
   /// preferable when you don’t need to condition your writes on read data.
   WriteBatch batch() => new WriteBatch._(this);
 
+  /// Creates a write batch whose operations are all sent to the platform side
+  /// in a single message when it is committed, instead of one message per
+  /// operation.
+  ///
+  /// Batches with more than 500 operations, the most Firestore accepts in a
+  /// single batch, are committed as several batches of up to 500 operations
+  /// each. Such batches are only atomic per chunk of 500 operations: the
+  /// chunks are committed together, and one failing does not undo the others.
+  /// If any operation is invalid, nothing is committed.
+  ///
+  /// Only supported on Android; on iOS, [WriteBatch.commit] throws a
+  /// [MissingPluginException].
+  WriteBatch bulkBatch() => new WriteBatch._bulk(this);
+
+  /// Reads the documents referred to by [references] with a single platform
+  /// channel call.
+  ///
+  /// The reads run concurrently on the platform side, with at most
+  /// [maxConcurrentReads] of them in flight at a time. The results are in the
+  /// order of [references]; a failed read does not fail the others.
+  Future<List<DocumentReadResult>> getAll(List<DocumentReference> references,
+      {int maxConcurrentReads}) async {
+    final dynamic data = await channel.invokeMethod(
+      'Firestore#getAll',
+      <String, dynamic>{
+        'app': app.name,
+        'paths': references
+            .map((DocumentReference reference) => reference.path)
+            .toList(),
+        'maxConcurrentReads': maxConcurrentReads,
+      },
+    );
+    final List<dynamic> results = _decodeSnapshotData(data);
+    return new List<DocumentReadResult>.generate(references.length,
+        (int index) {
+      final Map<dynamic, dynamic> result = results[index];
+      if (result['error'] != null) {
+        return new DocumentReadResult._(
+          references[index],
+          null,
+          new PlatformException(
+            code: 'Error performing get',
+            message: result['error'],
+          ),
+        );
+      }
+      return new DocumentReadResult._(
+        references[index],
+        new DocumentSnapshot._(
+          result['path'],
+          _asStringKeyedMap(result['data']),
+          this,
+        ),
+        null,
+      );
+    });
+  }
+
+  /// Returns how many snapshots throttled listeners (see
+  /// [Query.getSnapshots] and [DocumentReference.getSnapshots]) have held
+  /// back, by what became of them.
+  ///
+  /// `mergedEvents` counts the snapshots that reached Dart in the snapshot
+  /// sent at the end of their window, including the document changes of the
+  /// query snapshots it replaced. `droppedEvents` counts those that did not:
+  /// document snapshots replaced by a later one, and snapshots held back when
+  /// their listener was removed.
+  Future<Map<String, int>> getThrottlingStats() async {
+    final Map<dynamic, dynamic> stats =
+        await channel.invokeMethod('Firestore#getThrottlingStats');
+    return stats?.cast<String, int>() ?? <String, int>{};
+  }
+
+  /// Returns counters of the transactions run so far with [runTransaction]:
+  /// how many were `started`, `committed`, `failed` and `timedOut`, how many
+  /// `retries` Firestore made because of contention, and the
+  /// `totalLatencyMillis` and `maxLatencyMillis` of the finished ones.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, int>> getTransactionStats() async {
+    final Map<dynamic, dynamic> stats =
+        await channel.invokeMethod('Firestore#getTransactionStats');
+    return stats?.cast<String, int>() ?? <String, int>{};
+  }
+
+  /// The `cacheSizeBytes` to pass to [settings] for a cache without a limit.
+  static const int cacheSizeUnlimited = -1;
+
+  /// Changes the settings of this Firestore instance.
+  ///
+  /// [persistenceEnabled] sets whether data is cached on disk, so that it
+  /// survives restarts of the app. [cacheSizeBytes] sets how large that cache
+  /// may grow before old documents are removed from it, or
+  /// [cacheSizeUnlimited]. Settings that are not given are left unchanged.
+  ///
+  /// Must be called before any other use of this instance. Only supported on
+  /// Android.
+  Future<void> settings({bool persistenceEnabled, int cacheSizeBytes}) {
+    final Map<String, dynamic> arguments = <String, dynamic>{'app': app.name};
+    if (persistenceEnabled != null) {
+      arguments['persistenceEnabled'] = persistenceEnabled;
+    }
+    if (cacheSizeBytes != null) arguments['cacheSizeBytes'] = cacheSizeBytes;
+    return channel.invokeMethod('Firestore#settings', arguments);
+  }
+
+  /// Returns the counters of the platform side cache of built queries: its
+  /// `hits`, `misses` and `evictions`, and its current `size`.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, int>> getQueryCacheStats() async {
+    final Map<dynamic, dynamic> stats =
+        await channel.invokeMethod('Firestore#getQueryCacheStats');
+    return stats?.cast<String, int>() ?? <String, int>{};
+  }
+
+  /// Returns how many listeners, write batches and transactions are currently
+  /// live on the platform side, under the `queryListeners`,
+  /// `documentListeners`, `writeBatches` and `transactions` keys.
+  ///
+  /// Meant for catching leaked handles in tests. Only supported on Android.
+  Future<Map<String, int>> getHandleCounts() async {
+    final Map<dynamic, dynamic> counts =
+        await channel.invokeMethod('Firestore#getHandleCounts');
+    return counts?.cast<String, int>() ?? <String, int>{};
+  }
+
+  /// Returns statistics about the traffic between Dart and the platform.
+  ///
+  /// Under `methods`, each method called from Dart maps to its number of
+  /// `messages`, their encoded size in `bytes` and the `latency` from
+  /// receiving a call to sending its result. Under `listeners`, each listener
+  /// handle maps to the same numbers for the snapshots sent to it, timed from
+  /// receiving a snapshot to encoding it. `parseQuerySnapshot` is the time
+  /// spent converting query snapshots. Latencies are maps of `count`,
+  /// `totalMicros`, `maxMicros`, `p50Micros`, `p90Micros` and `p99Micros`,
+  /// whose percentiles are accurate to within an eighth.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, dynamic>> getStats() async {
+    final Map<dynamic, dynamic> stats =
+        await channel.invokeMethod('Firestore#getStats');
+    return stats?.cast<String, dynamic>() ?? <String, dynamic>{};
+  }
+
+  /// Clears the statistics returned by [getStats].
+  Future<void> resetStats() async {
+    await channel.invokeMethod('Firestore#resetStats');
+  }
+
   /// Executes the given TransactionHandler and then attempts to commit the
   /// changes applied within an atomic transaction.
   ///
@@ -111,12 +280,16 @@ class Firestore {
         'Transaction timeout must be more than 0 milliseconds');
     final int transactionId = _transactionHandlerId++;
     _transactionHandlers[transactionId] = transactionHandler;
-    final Map<dynamic, dynamic> result = await channel
-        .invokeMethod('Firestore#runTransaction', <String, dynamic>{
-      'app': app.name,
-      'transactionId': transactionId,
-      'transactionTimeout': timeout.inMilliseconds
-    });
-    return result?.cast<String, dynamic>() ?? <String, dynamic>{};
+    try {
+      final Map<dynamic, dynamic> result = await channel
+          .invokeMethod('Firestore#runTransaction', <String, dynamic>{
+        'app': app.name,
+        'transactionId': transactionId,
+        'transactionTimeout': timeout.inMilliseconds
+      });
+      return result?.cast<String, dynamic>() ?? <String, dynamic>{};
+    } finally {
+      _transactionHandlers.remove(transactionId);
+    }
   }
 }
@@ -12,6 +12,8 @@ class FirestoreMessageCodec extends StandardMessageCodec {
   static const int _kGeoPoint = 129;
   static const int _kDocumentReference = 130;
   static const int _kBlob = 131;
+  static const int _kInternedDocumentReference = 132;
+  static const int _kInternedPath = 133;
 
   @override
   void writeValue(WriteBuffer buffer, dynamic value) {
@@ -60,8 +62,50 @@ class FirestoreMessageCodec extends StandardMessageCodec {
         final int length = readSize(buffer);
         final List<int> bytes = buffer.getUint8List(length);
         return new Blob(bytes);
+      case _kInternedDocumentReference:
+        final String appName = _readInternedString(buffer);
+        final String parentPath = _readInternedString(buffer);
+        final Firestore firestore =
+            new Firestore(app: new FirebaseApp(name: appName));
+        return firestore.document('$parentPath/${_readString(buffer)}');
+      case _kInternedPath:
+        final String parentPath = _readInternedString(buffer);
+        return '$parentPath/${_readString(buffer)}';
       default:
         return super.readValueOfType(type, buffer);
     }
   }
+
+  String _readString(ReadBuffer buffer) {
+    final int length = readSize(buffer);
+    return utf8.decoder.convert(buffer.getUint8List(length));
+  }
+
+  /// Reads a string that the platform side wrote to the string table of the
+  /// message being decoded, either in full on its first occurrence or as its
+  /// index in the table afterwards.
+  String _readInternedString(ReadBuffer buffer) {
+    final List<String> table = _stringTables[buffer] ??= <String>[];
+    final int index = readSize(buffer);
+    if (index < table.length) return table[index];
+    final String value = _readString(buffer);
+    table.add(value);
+    return value;
+  }
+}
+
+/// String tables of the messages being decoded, one per [ReadBuffer].
+final Expando<List<String>> _stringTables = new Expando<List<String>>();
+
+/// Decodes snapshot data that the platform side encoded on a background
+/// thread and sent as bytes, to keep encoding off the platform thread.
+dynamic _decodeSnapshotData(dynamic data) {
+  if (data is Uint8List) {
+    return const FirestoreMessageCodec().decodeMessage(new ByteData.view(
+      data.buffer,
+      data.offsetInBytes,
+      data.lengthInBytes,
+    ));
+  }
+  return data;
 }
@@ -26,6 +26,9 @@ class Query {
   final List<String> _pathComponents;
   final Map<String, dynamic> _parameters;
 
+  /// The id returned by [register], if any.
+  int _queryId;
+
   String get _path => _pathComponents.join('/');
 
   Query _copyWithParameters(Map<String, dynamic> parameters) {
@@ -45,23 +48,97 @@ class Query {
       });
   }
 
+  /// Registers this query with the platform side, which returns a short id
+  /// that [getDocuments] and [getSnapshots] then send instead of the path and
+  /// parameters of the query.
+  ///
+  /// The platform side only keeps a limited number of queries. Calls for a
+  /// query that it has evicted fall back to sending the path and parameters.
+  /// Only supported on Android.
+  Future<void> register() async {
+    _queryId = await Firestore.channel.invokeMethod(
+      'Query#register',
+      <String, dynamic>{
+        'app': firestore.app.name,
+        'path': _path,
+        'parameters': _parameters,
+      },
+    );
+  }
+
+  /// Invokes [method] with [arguments] and the description of this query,
+  /// which is its registered id if it has one.
+  Future<dynamic> _invokeQueryMethod(
+      String method, Map<String, dynamic> arguments) async {
+    if (_queryId != null) {
+      try {
+        return await Firestore.channel.invokeMethod(
+          method,
+          new Map<String, dynamic>.from(arguments)
+            ..addAll(<String, dynamic>{
+              'app': firestore.app.name,
+              'queryId': _queryId,
+            }),
+        );
+      } on PlatformException catch (e) {
+        if (e.code != 'UNKNOWN_QUERY') rethrow;
+        _queryId = null;
+      }
+    }
+    return Firestore.channel.invokeMethod(
+      method,
+      new Map<String, dynamic>.from(arguments)
+        ..addAll(<String, dynamic>{
+          'app': firestore.app.name,
+          'path': _path,
+          'parameters': _parameters,
+        }),
+    );
+  }
+
   /// Notifies of query results at this location
+  Stream<QuerySnapshot> get snapshots => getSnapshots();
+
+  /// Notifies of query results at this location.
+  ///
+  /// If [deltaEncoded] is true, only the first snapshot is sent over the
+  /// platform channel in full. Later snapshots only carry their
+  /// [QuerySnapshot.documentChanges], which are applied to the documents of
+  /// the previous snapshot, so small edits to large result sets stay cheap.
+  ///
+  /// If [maxEventsPerSecond] or [debounce] is set, snapshots of busy queries
+  /// are coalesced by the platform side: within each window, only the latest
+  /// snapshot is sent, with the document changes of the snapshots it replaces.
+  /// With [maxEventsPerSecond], the first snapshot of a window is sent right
+  /// away; with [debounce], it is sent at the end of the window.
+  ///
+  /// If [select] is set, documents only have the fields at those paths, e.g.
+  /// `'name'` or `'address.city'`. Only supported on Android.
   // TODO(jackson): Reduce code duplication with [DocumentReference]
-  Stream<QuerySnapshot> get snapshots {
+  Stream<QuerySnapshot> getSnapshots({
+    bool deltaEncoded: false,
+    int maxEventsPerSecond,
+    Duration debounce,
+    List<String> select,
+  }) {
+    assert(maxEventsPerSecond == null || debounce == null);
     Future<int> _handle;
     // It's fine to let the StreamController be garbage collected once all the
     // subscribers have cancelled; this analyzer warning is safe to ignore.
     StreamController<QuerySnapshot> controller; // ignore: close_sinks
     controller = new StreamController<QuerySnapshot>.broadcast(
       onListen: () {
-        _handle = Firestore.channel.invokeMethod(
-          'Query#addSnapshotListener',
-          <String, dynamic>{
-            'app': firestore.app.name,
-            'path': _path,
-            'parameters': _parameters,
-          },
-        ).then<int>((dynamic result) => result);
+        final Map<String, dynamic> arguments = <String, dynamic>{};
+        if (deltaEncoded) arguments['deltaEncoded'] = true;
+        if (select != null) arguments['select'] = select;
+        if (maxEventsPerSecond != null) {
+          arguments['maxEventsPerSecond'] = maxEventsPerSecond;
+        }
+        if (debounce != null) {
+          arguments['debounceMillis'] = debounce.inMilliseconds;
+        }
+        _handle = _invokeQueryMethod('Query#addSnapshotListener', arguments)
+            .then<int>((dynamic result) => result);
         _handle.then((int handle) {
           Firestore._queryObservers[handle] = controller;
         });
@@ -73,6 +150,7 @@ class Query {
             <String, dynamic>{'handle': handle},
           );
           Firestore._queryObservers.remove(handle);
+          Firestore._querySnapshots.remove(handle);
         });
       },
     );
@@ -80,16 +158,78 @@ class Query {
   }
 
   /// Fetch the documents for this query
-  Future<QuerySnapshot> getDocuments() async {
-    final Map<dynamic, dynamic> data = await Firestore.channel.invokeMethod(
-      'Query#getDocuments',
-      <String, dynamic>{
-        'app': firestore.app.name,
-        'path': _path,
-        'parameters': _parameters,
+  ///
+  /// If [select] is set, documents only have the fields at those paths. Only
+  /// supported on Android.
+  ///
+  /// [source] sets whether the read may use the local cache or the server.
+  /// Only supported on Android.
+  Future<QuerySnapshot> getDocuments({
+    List<String> select,
+    Source source: Source.serverAndCache,
+  }) async {
+    final Map<String, dynamic> arguments = <String, dynamic>{};
+    if (select != null) arguments['select'] = select;
+    _addSource(arguments, source);
+    final dynamic data =
+        await _invokeQueryMethod('Query#getDocuments', arguments);
+    return new QuerySnapshot._(_decodeSnapshotData(data), firestore);
+  }
+
+  /// Fetches the documents for this query in pages of at most [pageSize]
+  /// documents.
+  ///
+  /// Unlike [getDocuments], the platform side never holds more than one page,
+  /// so this suits queries with very large results. Each page is read only
+  /// after the previous one has been sent, and cancelling the subscription
+  /// stops the reads. Only supported on Android.
+  Stream<List<DocumentSnapshot>> getDocumentPages({int pageSize: 500}) {
+    assert(pageSize > 0);
+    Future<int> _handle;
+    StreamSubscription<dynamic> pagesSubscription;
+    // The controller is closed when the platform side has sent the last page.
+    StreamController<List<DocumentSnapshot>> controller; // ignore: close_sinks
+    controller = new StreamController<List<DocumentSnapshot>>(
+      onListen: () {
+        _handle = Firestore.channel.invokeMethod(
+          'Query#getDocumentPages',
+          <String, dynamic>{
+            'app': firestore.app.name,
+            'path': _path,
+            'parameters': _parameters,
+            'pageSize': pageSize,
+          },
+        ).then<int>((dynamic result) => result);
+        _handle.then((int handle) {
+          final EventChannel pages = new EventChannel(
+            '${Firestore.channel.name}/pages/$handle',
+            Firestore.channel.codec,
+          );
+          pagesSubscription = pages.receiveBroadcastStream().listen(
+            (dynamic page) => controller.add(_decodePage(page)),
+            onError: controller.addError,
+            onDone: controller.close,
+          );
+        });
+      },
+      onCancel: () {
+        return _handle.then((int handle) => pagesSubscription.cancel());
       },
     );
-    return new QuerySnapshot._(data, firestore);
+    return controller.stream;
+  }
+
+  List<DocumentSnapshot> _decodePage(dynamic page) {
+    final Map<dynamic, dynamic> data = _decodeSnapshotData(page);
+    final List<dynamic> paths = data['paths'];
+    final List<dynamic> documents = data['documents'];
+    return new List<DocumentSnapshot>.generate(paths.length, (int index) {
+      return new DocumentSnapshot._(
+        paths[index],
+        _asStringKeyedMap(documents[index]),
+        firestore,
+      );
+    });
   }
 
   /// Obtains a CollectionReference corresponding to this query's location.
@@ -31,4 +31,34 @@ class QuerySnapshot {
             _firestore,
           );
         });
+
+  QuerySnapshot._fromDocuments(
+      this.documents, this.documentChanges, this._firestore);
+
+  /// Builds the snapshot that results from applying the document changes in
+  /// [data] to the documents of [previous].
+  factory QuerySnapshot._applyDelta(QuerySnapshot previous,
+      Map<dynamic, dynamic> data, Firestore firestore) {
+    final List<DocumentSnapshot> documents = previous == null
+        ? <DocumentSnapshot>[]
+        : new List<DocumentSnapshot>.from(previous.documents);
+    final List<DocumentChange> documentChanges = <DocumentChange>[];
+    for (final Map<dynamic, dynamic> changeData in data['documentChanges']) {
+      DocumentChange change = new DocumentChange._(changeData, firestore);
+      if (change.oldIndex != -1) {
+        final DocumentSnapshot oldDocument =
+            documents.removeAt(change.oldIndex);
+        if (change.type == DocumentChangeType.removed) {
+          // Removed documents are sent without data.
+          change = new DocumentChange._withDocument(change, oldDocument);
+        }
+      }
+      if (change.newIndex != -1) {
+        documents.insert(change.newIndex, change.document);
+      }
+      documentChanges.add(change);
+    }
+    return new QuerySnapshot._fromDocuments(
+        documents, documentChanges, firestore);
+  }
 }
@@ -0,0 +1,26 @@
+// Copyright 2018, the Chromium project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+part of cloud_firestore;
+
+/// Where [DocumentReference.get] and [Query.getDocuments] get their data from.
+enum Source {
+  /// The server if it can be reached, and the local cache otherwise.
+  serverAndCache,
+
+  /// Only the server. The read fails if the server cannot be reached.
+  server,
+
+  /// Only the local cache, without waiting for the network.
+  cache,
+}
+
+/// Adds [source] to the [arguments] of a read, unless it is the default.
+void _addSource(Map<String, dynamic> arguments, Source source) {
+  if (source == Source.server) {
+    arguments['source'] = 'server';
+  } else if (source == Source.cache) {
+    arguments['source'] = 'cache';
+  }
+}
@@ -57,4 +57,65 @@ class Transaction {
       'data': data,
     });
   }
+
+  /// Performs [operations] in order with a single platform channel call.
+  ///
+  /// The returned list has a snapshot for each [TransactionOperation.get] and
+  /// null for each write. If an operation fails, the later ones are not
+  /// performed and the returned future completes with its error.
+  ///
+  /// Only supported on Android.
+  Future<List<DocumentSnapshot>> execute(
+      List<TransactionOperation> operations) async {
+    final List<dynamic> results = await Firestore.channel
+        .invokeMethod('Transaction#execute', <String, dynamic>{
+      'app': _firestore.app.name,
+      'transactionId': _transactionId,
+      'operations': operations
+          .map((TransactionOperation operation) => operation._toMap())
+          .toList(),
+    });
+    return results.map((dynamic result) {
+      if (result == null) {
+        return null;
+      }
+      return new DocumentSnapshot._(
+          result['path'], _asStringKeyedMap(result['data']), _firestore);
+    }).toList();
+  }
+}
+
+/// A read or write to perform with [Transaction.execute].
+class TransactionOperation {
+  TransactionOperation._(this._type, this._reference, [this._data]);
+
+  /// Reads the document referred to by [documentReference].
+  TransactionOperation.get(DocumentReference documentReference)
+      : this._('get', documentReference);
+
+  /// Writes [data] to the document referred to by [documentReference].
+  TransactionOperation.set(
+      DocumentReference documentReference, Map<String, dynamic> data)
+      : this._('set', documentReference, data);
+
+  /// Updates fields in the document referred to by [documentReference].
+  TransactionOperation.update(
+      DocumentReference documentReference, Map<String, dynamic> data)
+      : this._('update', documentReference, data);
+
+  /// Deletes the document referred to by [documentReference].
+  TransactionOperation.delete(DocumentReference documentReference)
+      : this._('delete', documentReference);
+
+  final String _type;
+  final DocumentReference _reference;
+  final Map<String, dynamic> _data;
+
+  Map<String, dynamic> _toMap() {
+    return <String, dynamic>{
+      'type': _type,
+      'path': _reference.path,
+      'data': _data,
+    };
+  }
 }
@@ -13,12 +13,20 @@ part of cloud_firestore;
 class WriteBatch {
   WriteBatch._(this._firestore)
       : _handle = Firestore.channel.invokeMethod(
-            'WriteBatch#create', <String, dynamic>{'app': _firestore.app.name});
+            'WriteBatch#create', <String, dynamic>{'app': _firestore.app.name}),
+        _operations = null;
+
+  /// Creates a batch that keeps its operations on the Dart side and sends them
+  /// to the platform side in a single message on [commit].
+  WriteBatch._bulk(this._firestore) : _operations = <Map<String, dynamic>>[];
 
   final Firestore _firestore;
   Future<dynamic> _handle;
   final List<Future<dynamic>> _actions = <Future<dynamic>>[];
 
+  /// Operations of a bulk batch, null for batches created on the platform side.
+  final List<Map<String, dynamic>> _operations;
+
   /// Indicator to whether or not this [WriteBatch] has been committed.
   bool _committed = false;
 
@@ -28,6 +36,15 @@ class WriteBatch {
   Future<Null> commit() async {
     if (!_committed) {
       _committed = true;
+      if (_operations != null) {
+        return await Firestore.channel.invokeMethod(
+          'WriteBatch#commitOperations',
+          <String, dynamic>{
+            'app': _firestore.app.name,
+            'operations': _operations,
+          },
+        );
+      }
       await Future.wait<dynamic>(_actions);
       return await Firestore.channel.invokeMethod(
           'WriteBatch#commit', <String, dynamic>{'handle': await _handle});
@@ -38,7 +55,12 @@ class WriteBatch {
 
   /// Deletes the document referred to by [document].
   void delete(DocumentReference document) {
-    if (!_committed) {
+    if (!_committed && _operations != null) {
+      _operations.add(<String, dynamic>{
+        'type': 'delete',
+        'path': document.path,
+      });
+    } else if (!_committed) {
       _handle.then((dynamic handle) {
         _actions.add(
           Firestore.channel.invokeMethod(
@@ -65,7 +87,14 @@ class WriteBatch {
   /// existing document.
   void setData(DocumentReference document, Map<String, dynamic> data,
       [SetOptions options]) {
-    if (!_committed) {
+    if (!_committed && _operations != null) {
+      _operations.add(<String, dynamic>{
+        'type': 'set',
+        'path': document.path,
+        'data': data,
+        'options': options?._data,
+      });
+    } else if (!_committed) {
       _handle.then((dynamic handle) {
         _actions.add(
           Firestore.channel.invokeMethod(
@@ -90,7 +119,13 @@ class WriteBatch {
   ///
   /// If the document does not exist, the operation will fail.
   void updateData(DocumentReference document, Map<String, dynamic> data) {
-    if (!_committed) {
+    if (!_committed && _operations != null) {
+      _operations.add(<String, dynamic>{
+        'type': 'update',
+        'path': document.path,
+        'data': data,
+      });
+    } else if (!_committed) {
       _handle.then((dynamic handle) {
         _actions.add(
           Firestore.channel.invokeMethod(
@@ -3,10 +3,12 @@
 // found in the LICENSE file.
 
 import 'dart:async';
+import 'dart:convert';
 import 'dart:typed_data';
 
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter/foundation.dart' show WriteBuffer;
 import 'package:flutter/services.dart';
 import 'package:flutter_test/flutter_test.dart';
 
@@ -20,6 +22,8 @@ void main() {
     Transaction transaction;
     const Map<String, dynamic> kMockDocumentSnapshotData =
         const <String, dynamic>{'1': 2};
+    const Map<String, dynamic> kMockUpdatedDocumentSnapshotData =
+        const <String, dynamic>{'2': 3};
 
     setUp(() async {
       mockHandleId = 0;
@@ -42,26 +46,58 @@ void main() {
         switch (methodCall.method) {
           case 'Query#addSnapshotListener':
             final int handle = mockHandleId++;
+            final bool deltaEncoded =
+                methodCall.arguments['deltaEncoded'] == true;
+            final Map<String, dynamic> snapshot = <String, dynamic>{
+              'app': app.name,
+              'handle': handle,
+              'paths': <String>["${methodCall.arguments['path']}/0"],
+              'documents': <dynamic>[kMockDocumentSnapshotData],
+              'documentChanges': <dynamic>[
+                <String, dynamic>{
+                  'oldIndex': -1,
+                  'newIndex': 0,
+                  'type': 'DocumentChangeType.added',
+                  'document': kMockDocumentSnapshotData,
+                },
+              ],
+            };
+            if (deltaEncoded) snapshot['delta'] = false;
             BinaryMessages.handlePlatformMessage(
               Firestore.channel.name,
               Firestore.channel.codec.encodeMethodCall(
-                new MethodCall('QuerySnapshot', <String, dynamic>{
-                  'app': app.name,
-                  'handle': handle,
-                  'paths': <String>["${methodCall.arguments['path']}/0"],
-                  'documents': <dynamic>[kMockDocumentSnapshotData],
-                  'documentChanges': <dynamic>[
-                    <String, dynamic>{
-                      'oldIndex': -1,
-                      'newIndex': 0,
-                      'type': 'DocumentChangeType.added',
-                      'document': kMockDocumentSnapshotData,
-                    },
-                  ],
-                }),
+                new MethodCall('QuerySnapshot', snapshot),
               ),
               (_) {},
             );
+            if (deltaEncoded) {
+              BinaryMessages.handlePlatformMessage(
+                Firestore.channel.name,
+                Firestore.channel.codec.encodeMethodCall(
+                  new MethodCall('QuerySnapshot', <String, dynamic>{
+                    'handle': handle,
+                    'delta': true,
+                    'documentChanges': <dynamic>[
+                      <String, dynamic>{
+                        'oldIndex': -1,
+                        'newIndex': 1,
+                        'type': 'DocumentChangeType.added',
+                        'document': kMockUpdatedDocumentSnapshotData,
+                        'path': "${methodCall.arguments['path']}/1",
+                      },
+                      <String, dynamic>{
+                        'oldIndex': 0,
+                        'newIndex': -1,
+                        'type': 'DocumentChangeType.removed',
+                        'document': null,
+                        'path': "${methodCall.arguments['path']}/0",
+                      },
+                    ],
+                  }),
+                ),
+                (_) {},
+              );
+            }
             return handle;
           case 'Query#addDocumentListener':
             final int handle = mockHandleId++;
@@ -77,8 +113,17 @@ void main() {
               (_) {},
             );
             return handle;
+          case 'Query#getDocumentPages':
+            return 7;
+          case 'Query#register':
+            return methodCall.arguments['path'] == 'evicted' ? 9 : 4;
+          case 'Firestore#getQueryCacheStats':
+            return <String, dynamic>{'hits': 5, 'misses': 2};
           case 'Query#getDocuments':
-            return <String, dynamic>{
+            if (methodCall.arguments['queryId'] == 9) {
+              throw new PlatformException(code: 'UNKNOWN_QUERY');
+            }
+            final Map<String, dynamic> snapshot = <String, dynamic>{
               'paths': <String>["${methodCall.arguments['path']}/0"],
               'documents': <dynamic>[kMockDocumentSnapshotData],
               'documentChanges': <dynamic>[
@@ -90,6 +135,14 @@ void main() {
                 },
               ],
             };
+            if (methodCall.arguments['path'] == 'encoded') {
+              // Android encodes query results on a background thread.
+              final ByteData encoded =
+                  const FirestoreMessageCodec().encodeMessage(snapshot);
+              return encoded.buffer
+                  .asUint8List(encoded.offsetInBytes, encoded.lengthInBytes);
+            }
+            return snapshot;
           case 'DocumentReference#setData':
             return true;
           case 'DocumentReference#get':
@@ -115,8 +168,42 @@ void main() {
             return null;
           case 'Transaction#delete':
             return null;
+          case 'Transaction#execute':
+            return <dynamic>[
+              <String, dynamic>{
+                'path': 'foo/bar',
+                'data': <String, dynamic>{'key1': 'val1'}
+              },
+              null,
+            ];
+          case 'Firestore#getTransactionStats':
+            return <String, dynamic>{'started': 2, 'retries': 1};
           case 'WriteBatch#create':
             return 1;
+          case 'Firestore#getAll':
+            return methodCall.arguments['paths'].map((dynamic path) {
+              if (path == 'foo/bar') {
+                return <String, dynamic>{
+                  'path': path,
+                  'data': kMockDocumentSnapshotData,
+                };
+              }
+              return <String, dynamic>{'path': path, 'error': 'denied'};
+            }).toList();
+          case 'Firestore#getThrottlingStats':
+            return <String, dynamic>{'droppedEvents': 3, 'mergedEvents': 4};
+          case 'Firestore#getHandleCounts':
+            return <String, dynamic>{'queryListeners': 1, 'writeBatches': 0};
+          case 'Firestore#getStats':
+            return <String, dynamic>{
+              'methods': <String, dynamic>{
+                'Query#getDocuments': <String, dynamic>{
+                  'messages': 2,
+                  'bytes': 512,
+                },
+              },
+              'listeners': <int, dynamic>{},
+            };
           default:
             return null;
         }
@@ -124,6 +211,80 @@ void main() {
       log.clear();
     });
 
+    test('getThrottlingStats', () async {
+      final Map<String, int> stats = await firestore.getThrottlingStats();
+      expect(stats['droppedEvents'], equals(3));
+      expect(stats['mergedEvents'], equals(4));
+      expect(log, <Matcher>[
+        isMethodCall('Firestore#getThrottlingStats', arguments: null),
+      ]);
+    });
+
+    test('settings', () async {
+      await firestore.settings(
+        persistenceEnabled: false,
+        cacheSizeBytes: 10 * 1024 * 1024,
+      );
+      expect(log, <Matcher>[
+        isMethodCall('Firestore#settings', arguments: <String, dynamic>{
+          'app': app.name,
+          'persistenceEnabled': false,
+          'cacheSizeBytes': 10 * 1024 * 1024,
+        }),
+      ]);
+    });
+
+    test('getQueryCacheStats', () async {
+      final Map<String, int> stats = await firestore.getQueryCacheStats();
+      expect(stats['hits'], equals(5));
+      expect(stats['misses'], equals(2));
+      expect(log, <Matcher>[
+        isMethodCall('Firestore#getQueryCacheStats', arguments: null),
+      ]);
+    });
+
+    test('getHandleCounts', () async {
+      final Map<String, int> counts = await firestore.getHandleCounts();
+      expect(counts['queryListeners'], equals(1));
+      expect(counts['writeBatches'], equals(0));
+      expect(log, <Matcher>[
+        isMethodCall('Firestore#getHandleCounts', arguments: null),
+      ]);
+    });
+
+    test('getStats and resetStats', () async {
+      final Map<String, dynamic> stats = await firestore.getStats();
+      expect(stats['methods']['Query#getDocuments']['bytes'], equals(512));
+      await firestore.resetStats();
+      expect(log, <Matcher>[
+        isMethodCall('Firestore#getStats', arguments: null),
+        isMethodCall('Firestore#resetStats', arguments: null),
+      ]);
+    });
+
+    test('getAll', () async {
+      final List<DocumentReadResult> results = await firestore.getAll(
+        <DocumentReference>[
+          firestore.document('foo/bar'),
+          firestore.document('foo/baz'),
+        ],
+        maxConcurrentReads: 10,
+      );
+      expect(log, <Matcher>[
+        isMethodCall('Firestore#getAll', arguments: <String, dynamic>{
+          'app': app.name,
+          'paths': <String>['foo/bar', 'foo/baz'],
+          'maxConcurrentReads': 10,
+        }),
+      ]);
+      expect(results, hasLength(2));
+      expect(results[0].error, isNull);
+      expect(results[0].snapshot.data, equals(kMockDocumentSnapshotData));
+      expect(results[1].reference.path, equals('foo/baz'));
+      expect(results[1].snapshot, isNull);
+      expect(results[1].error.message, equals('denied'));
+    });
+
     test('multiple apps', () async {
       expect(Firestore.instance, equals(new Firestore()));
       final FirebaseApp app = new FirebaseApp(name: firestore.app.name);
@@ -213,6 +374,46 @@ void main() {
           })
         ]);
       });
+
+      test('execute', () async {
+        final DocumentReference documentReference =
+            firestore.document('foo/bar');
+        final List<DocumentSnapshot> results =
+            await transaction.execute(<TransactionOperation>[
+          new TransactionOperation.get(documentReference),
+          new TransactionOperation.update(
+              documentReference, <String, dynamic>{'key1': 'val2'}),
+        ]);
+        expect(log, <Matcher>[
+          isMethodCall('Transaction#execute', arguments: <String, dynamic>{
+            'app': app.name,
+            'transactionId': 0,
+            'operations': <Map<String, dynamic>>[
+              <String, dynamic>{
+                'type': 'get',
+                'path': 'foo/bar',
+                'data': null,
+              },
+              <String, dynamic>{
+                'type': 'update',
+                'path': 'foo/bar',
+                'data': <String, dynamic>{'key1': 'val2'},
+              },
+            ],
+          }),
+        ]);
+        expect(results, hasLength(2));
+        expect(results[0].data, equals(<String, dynamic>{'key1': 'val1'}));
+        expect(results[1], isNull);
+      });
+
+      test('getTransactionStats', () async {
+        final Map<String, int> stats = await firestore.getTransactionStats();
+        expect(log, <Matcher>[
+          isMethodCall('Firestore#getTransactionStats', arguments: null),
+        ]);
+        expect(stats, equals(<String, int>{'started': 2, 'retries': 1}));
+      });
     });
 
     group('Blob', () {
@@ -271,6 +472,73 @@ void main() {
           ),
         ]);
       });
+      test('listeners sharing snapshots', () async {
+        final int firstHandle = mockHandleId;
+        final Query query = firestore.collection('shared');
+        final Future<List<QuerySnapshot>> first =
+            query.snapshots.take(2).toList();
+        final Future<List<QuerySnapshot>> second =
+            query.snapshots.take(2).toList();
+        // Let both listeners receive their handles and first snapshots.
+        await new Future<Null>.delayed(Duration.zero);
+        BinaryMessages.handlePlatformMessage(
+          Firestore.channel.name,
+          Firestore.channel.codec.encodeMethodCall(
+            new MethodCall('QuerySnapshot', <String, dynamic>{
+              'handles': <int>[firstHandle, firstHandle + 1],
+              'paths': <String>['shared/1'],
+              'documents': <dynamic>[kMockUpdatedDocumentSnapshotData],
+              'documentChanges': <dynamic>[],
+            }),
+          ),
+          (_) {},
+        );
+        for (List<QuerySnapshot> snapshots in await Future.wait(
+            <Future<List<QuerySnapshot>>>[first, second])) {
+          final DocumentSnapshot document = snapshots[1].documents.single;
+          expect(document.reference.path, equals('shared/1'));
+          expect(document.data, equals(kMockUpdatedDocumentSnapshotData));
+        }
+      });
+      test('listen with delta encoding', () async {
+        final List<QuerySnapshot> snapshots = await collectionReference
+            .getSnapshots(deltaEncoded: true)
+            .take(2)
+            .toList();
+        expect(snapshots[0].documents, hasLength(1));
+        expect(snapshots[0].documents[0].reference.path, equals('foo/0'));
+        final QuerySnapshot snapshot = snapshots[1];
+        expect(snapshot.documents, hasLength(1));
+        expect(snapshot.documents[0].reference.path, equals('foo/1'));
+        expect(
+          snapshot.documents[0].data,
+          equals(kMockUpdatedDocumentSnapshotData),
+        );
+        expect(snapshot.documentChanges, hasLength(2));
+        final DocumentChange removed = snapshot.documentChanges[1];
+        expect(removed.type, equals(DocumentChangeType.removed));
+        expect(removed.document.data, equals(kMockDocumentSnapshotData));
+        // Flush the async removeListener call
+        await new Future<Null>.delayed(Duration.zero);
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#addSnapshotListener',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+              'deltaEncoded': true,
+            },
+          ),
+          isMethodCall(
+            'Query#removeListener',
+            arguments: <String, dynamic>{'handle': 0},
+          ),
+        ]);
+      });
       test('where', () async {
         final StreamSubscription<QuerySnapshot> subscription =
             collectionReference
@@ -392,6 +660,31 @@ void main() {
           ],
         );
       });
+      test('listen with throttling', () async {
+        final DocumentSnapshot snapshot = await firestore
+            .document('path/to/foo')
+            .getSnapshots(maxEventsPerSecond: 5)
+            .first;
+        expect(snapshot.reference.path, equals('path/to/foo'));
+        await new Future<Null>.delayed(Duration.zero);
+        expect(
+          log,
+          <Matcher>[
+            isMethodCall(
+              'Query#addDocumentListener',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'path': 'path/to/foo',
+                'maxEventsPerSecond': 5,
+              },
+            ),
+            isMethodCall(
+              'Query#removeListener',
+              arguments: <String, dynamic>{'handle': 0},
+            ),
+          ],
+        );
+      });
       test('set', () async {
         await collectionReference
             .document('bar')
@@ -495,6 +788,40 @@ void main() {
           expect(e.code, equals('UNKNOWN_PATH'));
         }
       });
+      test('get from cache', () async {
+        await collectionReference.document('bar').get(source: Source.cache);
+        expect(
+          log,
+          equals(<Matcher>[
+            isMethodCall(
+              'DocumentReference#get',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'path': 'foo/bar',
+                'source': 'cache',
+              },
+            ),
+          ]),
+        );
+      });
+      test('get with select', () async {
+        await collectionReference
+            .document('bar')
+            .get(select: <String>['key1', 'nested.key2']);
+        expect(
+          log,
+          equals(<Matcher>[
+            isMethodCall(
+              'DocumentReference#get',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'path': 'foo/bar',
+                'select': <String>['key1', 'nested.key2'],
+              },
+            ),
+          ]),
+        );
+      });
       test('collection', () async {
         final CollectionReference colRef =
             collectionReference.document('bar').collection('baz');
@@ -528,6 +855,112 @@ void main() {
         expect(document.reference.path, equals('foo/0'));
         expect(document.data, equals(kMockDocumentSnapshotData));
       });
+      test('getDocuments with encoded result', () async {
+        final QuerySnapshot snapshot =
+            await firestore.collection('encoded').getDocuments();
+        expect(snapshot.documents, hasLength(1));
+        final DocumentSnapshot document = snapshot.documents.first;
+        expect(document.reference.path, equals('encoded/0'));
+        expect(document.data, equals(kMockDocumentSnapshotData));
+        expect(snapshot.documentChanges, hasLength(1));
+      });
+      test('getDocuments with registered query', () async {
+        final Query query = firestore.collection('foo');
+        await query.register();
+        await query.getDocuments();
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#register',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+            },
+          ),
+          isMethodCall(
+            'Query#getDocuments',
+            arguments: <String, dynamic>{'app': app.name, 'queryId': 4},
+          ),
+        ]);
+      });
+      test('getDocuments with evicted query', () async {
+        final Query query = firestore.collection('evicted');
+        await query.register();
+        final QuerySnapshot snapshot = await query.getDocuments();
+        expect(snapshot.documents.single.reference.path, equals('evicted/0'));
+        expect(log, <Matcher>[
+          isMethodCall('Query#register', arguments: anything),
+          isMethodCall(
+            'Query#getDocuments',
+            arguments: <String, dynamic>{'app': app.name, 'queryId': 9},
+          ),
+          isMethodCall(
+            'Query#getDocuments',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'evicted',
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+            },
+          ),
+        ]);
+      });
+      test('getDocumentPages', () async {
+        const String pagesChannelName =
+            'plugins.flutter.io/cloud_firestore/pages/7';
+        final List<String> pagesLog = <String>[];
+        void sendPage(dynamic page) {
+          BinaryMessages.handlePlatformMessage(
+            pagesChannelName,
+            page == null
+                ? null
+                : Firestore.channel.codec.encodeSuccessEnvelope(page),
+            (_) {},
+          );
+        }
+
+        new MethodChannel(pagesChannelName, Firestore.channel.codec)
+            .setMockMethodCallHandler((MethodCall methodCall) async {
+          pagesLog.add(methodCall.method);
+          if (methodCall.method == 'listen') {
+            for (int page = 0; page < 2; page++) {
+              sendPage(<String, dynamic>{
+                'paths': <String>['foo/${page * 2}', 'foo/${page * 2 + 1}'],
+                'documents': <dynamic>[
+                  kMockDocumentSnapshotData,
+                  kMockDocumentSnapshotData,
+                ],
+              });
+            }
+            sendPage(null);
+          }
+        });
+        final List<List<DocumentSnapshot>> pages =
+            await collectionReference.getDocumentPages(pageSize: 2).toList();
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#getDocumentPages',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+              'pageSize': 2,
+            },
+          ),
+        ]);
+        expect(pages, hasLength(2));
+        expect(pages[1][1].reference.path, equals('foo/3'));
+        expect(pages[1][1].data, equals(kMockDocumentSnapshotData));
+        expect(pagesLog.first, equals('listen'));
+      });
     });
 
     group('FirestoreMessageCodec', () {
@@ -547,6 +980,33 @@ void main() {
         ];
         _checkEncodeDecode<dynamic>(codec, message);
       });
+      test('decode interned paths and references', () {
+        void putString(WriteBuffer buffer, String value) {
+          final List<int> bytes = utf8.encode(value);
+          buffer.putUint8(bytes.length);
+          buffer.putUint8List(new Uint8List.fromList(bytes));
+        }
+
+        // A list of a path and a reference sharing the parent path "foo",
+        // followed by a second path that refers to it by index.
+        final WriteBuffer buffer = new WriteBuffer()
+          ..putUint8(12)
+          ..putUint8(3)
+          ..putUint8(133)
+          ..putUint8(0);
+        putString(buffer, 'foo');
+        putString(buffer, 'bar');
+        buffer..putUint8(132)..putUint8(1);
+        putString(buffer, app.name);
+        buffer.putUint8(0);
+        putString(buffer, 'baz');
+        buffer..putUint8(133)..putUint8(0);
+        putString(buffer, 'qux');
+        final List<dynamic> decoded = codec.decodeMessage(buffer.done());
+        expect(decoded[0], equals('foo/bar'));
+        expect(decoded[1], equals(firestore.document('foo/baz')));
+        expect(decoded[2], equals('foo/qux'));
+      });
       test('encode and decode blob', () {
         final Uint8List bytes = new Uint8List(4);
         bytes[0] = 128;
@@ -556,6 +1016,48 @@ void main() {
     });
 
     group('WriteBatch', () {
+      test('bulk', () async {
+        final WriteBatch batch = firestore.bulkBatch();
+        batch.setData(
+          collectionReference.document('bar'),
+          <String, String>{'bazKey': 'quxValue'},
+          SetOptions.merge,
+        );
+        batch.updateData(
+          collectionReference.document('baz'),
+          <String, String>{'bazKey': 'quxValue'},
+        );
+        batch.delete(collectionReference.document('qux'));
+        await batch.commit();
+        expect(
+          log,
+          <Matcher>[
+            isMethodCall(
+              'WriteBatch#commitOperations',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'operations': <Map<String, dynamic>>[
+                  <String, dynamic>{
+                    'type': 'set',
+                    'path': 'foo/bar',
+                    'data': <String, String>{'bazKey': 'quxValue'},
+                    'options': <String, bool>{'merge': true},
+                  },
+                  <String, dynamic>{
+                    'type': 'update',
+                    'path': 'foo/baz',
+                    'data': <String, String>{'bazKey': 'quxValue'},
+                  },
+                  <String, dynamic>{
+                    'type': 'delete',
+                    'path': 'foo/qux',
+                  },
+                ],
+              },
+            ),
+          ],
+        );
+      });
       test('set', () async {
         final WriteBatch batch = firestore.batch();
         batch.setData(
@@ -4,11 +4,10 @@
 
 package io.flutter.plugins.firebase.database;
 
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.SparseArray;
-import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.TaskCompletionSource;
-import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
@@ -16,45 +15,71 @@ import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.MutableData;
 import com.google.firebase.database.Query;
-import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.PluginRegistry.ViewDestroyListener;
+import io.flutter.view.FlutterNativeView;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.Set;
 
 /** FirebaseDatabasePlugin */
-public class FirebaseDatabasePlugin implements MethodCallHandler {
+public class FirebaseDatabasePlugin implements MethodCallHandler, ViewDestroyListener {
 
-  private static final String TAG = "FirebaseDatabasePlugin";
+  private static final String CHANNEL_NAME = "plugins.flutter.io/firebase_database";
 
   private final MethodChannel channel;
+  private final BinaryMessenger messenger;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
   private static final String EVENT_TYPE_CHILD_ADDED = "_EventType.childAdded";
   private static final String EVENT_TYPE_CHILD_REMOVED = "_EventType.childRemoved";
   private static final String EVENT_TYPE_CHILD_CHANGED = "_EventType.childChanged";
   private static final String EVENT_TYPE_CHILD_MOVED = "_EventType.childMoved";
   private static final String EVENT_TYPE_VALUE = "_EventType.value";
 
+  private static final int MAX_CACHED_QUERIES = 100;
+  // How long writes are held back at most while coalescing, unless Dart says otherwise.
+  private static final long DEFAULT_MAX_HOLD_MILLIS = 5000;
+
   // Handles are ints used as indexes into the sparse array of active observers
   private int nextHandle = 0;
   private final SparseArray<EventObserver> observers = new SparseArray<>();
+  private final KeepSyncedManager keepSyncedManager = new KeepSyncedManager(mainHandler);
+  // Database instances by their app name and URL.
+  private final Map<List<String>, FirebaseDatabase> databases = new HashMap<>();
+  private final Map<FirebaseDatabase, WriteQueue> writeQueues = new HashMap<>();
+  private final QueryCache queryCache =
+      new QueryCache(
+          MAX_CACHED_QUERIES,
+          new QueryCache.Builder() {
+            @Override
+            public Query build(Map<String, Object> arguments) {
+              return buildQuery(getDatabase(arguments), arguments);
+            }
+          });
 
   public static void registerWith(PluginRegistry.Registrar registrar) {
-    final MethodChannel channel =
-        new MethodChannel(registrar.messenger(), "plugins.flutter.io/firebase_database");
-    channel.setMethodCallHandler(new FirebaseDatabasePlugin(channel));
+    final MethodChannel channel = new MethodChannel(registrar.messenger(), CHANNEL_NAME);
+    FirebaseDatabasePlugin plugin = new FirebaseDatabasePlugin(channel, registrar.messenger());
+    channel.setMethodCallHandler(plugin);
+    registrar.addViewDestroyListener(plugin);
   }
 
-  private FirebaseDatabasePlugin(MethodChannel channel) {
+  private FirebaseDatabasePlugin(MethodChannel channel, BinaryMessenger messenger) {
     this.channel = channel;
+    this.messenger = messenger;
   }
 
   private DatabaseReference getReference(FirebaseDatabase database, Map<String, Object> arguments) {
@@ -64,7 +89,42 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
     return reference;
   }
 
-  private Query getQuery(FirebaseDatabase database, Map<String, Object> arguments) {
+  private FirebaseDatabase getDatabase(Map<String, Object> arguments) {
+    String appName = (String) arguments.get("app");
+    String databaseURL = (String) arguments.get("databaseURL");
+    List<String> key = Arrays.asList(appName, databaseURL);
+    FirebaseDatabase database = databases.get(key);
+    if (database != null) {
+      return database;
+    }
+    if (appName != null && databaseURL != null) {
+      database = FirebaseDatabase.getInstance(FirebaseApp.getInstance(appName), databaseURL);
+    } else if (appName != null) {
+      database = FirebaseDatabase.getInstance(FirebaseApp.getInstance(appName));
+    } else if (databaseURL != null) {
+      database = FirebaseDatabase.getInstance(databaseURL);
+    } else {
+      database = FirebaseDatabase.getInstance();
+    }
+    databases.put(key, database);
+    return database;
+  }
+
+  private WriteQueue getWriteQueue(FirebaseDatabase database) {
+    WriteQueue writeQueue = writeQueues.get(database);
+    if (writeQueue == null) {
+      writeQueue = new WriteQueue(database, mainHandler);
+      writeQueues.put(database, writeQueue);
+    }
+    return writeQueue;
+  }
+
+  /** Returns the query that {@code arguments} describe, which is only built the first time. */
+  private Query getQuery(Map<String, Object> arguments) {
+    return queryCache.get(arguments);
+  }
+
+  private Query buildQuery(FirebaseDatabase database, Map<String, Object> arguments) {
     Query query = getReference(database, arguments);
     @SuppressWarnings("unchecked")
     Map<String, Object> parameters = (Map<String, Object>) arguments.get("parameters");
@@ -151,47 +211,136 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
     return query;
   }
 
-  private class DefaultCompletionListener implements DatabaseReference.CompletionListener {
-    private final Result result;
+  /**
+   * Listens to a query for one or more event types with a single listener of each kind, and sends
+   * only the requested events to the Dart side.
+   */
+  private class EventObserver implements ChildEventListener, ValueEventListener {
+    private final Set<String> requestedEventTypes;
+    private int handle;
+    private List<Object> queryKey;
+    private Query query;
+    private final long startTime = SystemClock.elapsedRealtime();
+    private long events = 0;
+    // Milliseconds during which events are collected and then sent in one message, 0 to collect
+    // them until the end of the current main looper turn, or -1 to send each event on its own.
+    private final int batchWindow;
+    // Levels of children sent below each snapshot, see SnapshotEncoder.
+    private final int maxDepth;
+    // Size of the last message, with which the next one is sized.
+    private int messageSize = 0;
+    // Events collected for the next message, in the order they arrived.
+    private List<Map<String, Object>> pendingEvents;
+    private final Runnable sendPendingEvents =
+        new Runnable() {
+          @Override
+          public void run() {
+            sendPendingEvents();
+          }
+        };
 
-    DefaultCompletionListener(Result result) {
-      this.result = result;
+    EventObserver(List<String> requestedEventTypes, int handle, int batchWindow, int maxDepth) {
+      this.requestedEventTypes = new HashSet<>(requestedEventTypes);
+      this.handle = handle;
+      this.batchWindow = batchWindow;
+      this.maxDepth = maxDepth;
     }
 
-    @Override
-    public void onComplete(DatabaseError error, DatabaseReference ref) {
-      if (error != null) {
-        result.error(String.valueOf(error.getCode()), error.getMessage(), error.getDetails());
-      } else {
-        result.success(null);
+    boolean observesValue() {
+      return requestedEventTypes.contains(EVENT_TYPE_VALUE);
+    }
+
+    boolean observesChildren() {
+      return requestedEventTypes.size() > (observesValue() ? 1 : 0);
+    }
+
+    void addTo(List<Object> queryKey, Query query) {
+      this.queryKey = queryKey;
+      this.query = query;
+      keepSyncedManager.onObserverAdded(queryKey, query);
+      if (observesValue()) {
+        query.addValueEventListener(this);
+      }
+      if (observesChildren()) {
+        query.addChildEventListener(this);
       }
     }
-  }
 
-  private class EventObserver implements ChildEventListener, ValueEventListener {
-    private String requestedEventType;
-    private int handle;
+    /**
+     * Removes the listeners from the query that they were added to, and drops the events that have
+     * not been sent yet.
+     */
+    void remove() {
+      if (observesValue()) {
+        query.removeEventListener((ValueEventListener) this);
+      }
+      if (observesChildren()) {
+        query.removeEventListener((ChildEventListener) this);
+      }
+      pendingEvents = null;
+      mainHandler.removeCallbacks(sendPendingEvents);
+      keepSyncedManager.onObserverRemoved(queryKey);
+    }
 
-    EventObserver(String requestedEventType, int handle) {
-      this.requestedEventType = requestedEventType;
-      this.handle = handle;
+    Map<String, Object> getStats() {
+      long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+      Map<String, Object> stats = new HashMap<>();
+      stats.put("path", queryKey.get(2));
+      stats.put("eventTypes", new ArrayList<>(requestedEventTypes));
+      stats.put("events", events);
+      stats.put("eventsPerSecond", events * 1000.0 / elapsed);
+      return stats;
     }
 
     private void sendEvent(String eventType, DataSnapshot snapshot, String previousChildName) {
-      if (eventType.equals(requestedEventType)) {
+      if (requestedEventTypes.contains(eventType)) {
+        events++;
         Map<String, Object> arguments = new HashMap<>();
         Map<String, Object> snapshotMap = new HashMap<>();
         snapshotMap.put("key", snapshot.getKey());
-        snapshotMap.put("value", snapshot.getValue());
-        arguments.put("handle", handle);
+        // Encoded by walking its children rather than through getValue().
+        snapshotMap.put("value", snapshot);
         arguments.put("snapshot", snapshotMap);
         arguments.put("previousSiblingKey", previousChildName);
-        channel.invokeMethod("Event", arguments);
+        if (requestedEventTypes.size() > 1) {
+          arguments.put("eventType", eventType);
+        }
+        if (batchWindow < 0) {
+          arguments.put("handle", handle);
+          invokeMethod("Event", arguments);
+          return;
+        }
+        if (pendingEvents == null) {
+          pendingEvents = new ArrayList<>();
+          mainHandler.postDelayed(sendPendingEvents, batchWindow);
+        }
+        pendingEvents.add(arguments);
       }
     }
 
+    private void sendPendingEvents() {
+      if (pendingEvents == null) {
+        return;
+      }
+      Map<String, Object> arguments = new HashMap<>();
+      arguments.put("handle", handle);
+      arguments.put("events", pendingEvents);
+      pendingEvents = null;
+      mainHandler.removeCallbacks(sendPendingEvents);
+      invokeMethod("Events", arguments);
+    }
+
+    private void invokeMethod(String method, Map<String, Object> arguments) {
+      ByteBuffer message =
+          SnapshotEncoder.encodeMethodCall(method, arguments, maxDepth, messageSize);
+      messageSize = message.position();
+      messenger.send(CHANNEL_NAME, message);
+    }
+
     @Override
     public void onCancelled(DatabaseError error) {
+      // Events that arrived before the error are delivered before it.
+      sendPendingEvents();
       Map<String, Object> arguments = new HashMap<>();
       arguments.put("handle", handle);
       arguments.put("error", asMap(error));
@@ -227,21 +376,12 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
   @Override
   public void onMethodCall(final MethodCall call, final Result result) {
     final Map<String, Object> arguments = call.arguments();
-    FirebaseDatabase database;
-    String appName = (String) arguments.get("app");
-    String databaseURL = (String) arguments.get("databaseURL");
-    if (appName != null && databaseURL != null) {
-      database = FirebaseDatabase.getInstance(FirebaseApp.getInstance(appName), databaseURL);
-    } else if (appName != null) {
-      database = FirebaseDatabase.getInstance(FirebaseApp.getInstance(appName));
-    } else if (databaseURL != null) {
-      database = FirebaseDatabase.getInstance(databaseURL);
-    } else {
-      database = FirebaseDatabase.getInstance();
-    }
+    // Only the calls that need a database get one, since the others, e.g. removeAllObservers,
+    // may come without arguments.
     switch (call.method) {
       case "FirebaseDatabase#goOnline":
         {
+          FirebaseDatabase database = getDatabase(arguments);
           database.goOnline();
           result.success(null);
           break;
@@ -249,6 +389,7 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
 
       case "FirebaseDatabase#goOffline":
         {
+          FirebaseDatabase database = getDatabase(arguments);
           database.goOffline();
           result.success(null);
           break;
@@ -256,6 +397,8 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
 
       case "FirebaseDatabase#purgeOutstandingWrites":
         {
+          FirebaseDatabase database = getDatabase(arguments);
+          getWriteQueue(database).purge();
           database.purgeOutstandingWrites();
           result.success(null);
           break;
@@ -263,9 +406,11 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
 
       case "FirebaseDatabase#setPersistenceEnabled":
         {
+          FirebaseDatabase database = getDatabase(arguments);
           Boolean isEnabled = (Boolean) arguments.get("enabled");
           try {
             database.setPersistenceEnabled(isEnabled);
+            getWriteQueue(database).setPersistenceEnabled(isEnabled);
             result.success(true);
           } catch (DatabaseException e) {
             // Database is already in use, e.g. after hot reload/restart.
@@ -276,6 +421,7 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
 
       case "FirebaseDatabase#setPersistenceCacheSizeBytes":
         {
+          FirebaseDatabase database = getDatabase(arguments);
           long cacheSize = (Integer) arguments.get("cacheSize");
           try {
             database.setPersistenceCacheSizeBytes(cacheSize);
@@ -287,167 +433,117 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
           break;
         }
 
+      case "FirebaseDatabase#multiSet":
+        {
+          FirebaseDatabase database = getDatabase(arguments);
+          @SuppressWarnings("unchecked")
+          Map<String, Object> values = (Map<String, Object>) arguments.get("values");
+          getWriteQueue(database).multiSet(values, result);
+          break;
+        }
+
+      case "FirebaseDatabase#setWriteCoalescing":
+        {
+          FirebaseDatabase database = getDatabase(arguments);
+          Boolean enabled = (Boolean) arguments.get("enabled");
+          Number maxHoldTime = (Number) arguments.get("maxHoldTime");
+          result.success(
+              getWriteQueue(database)
+                  .setCoalescing(
+                      enabled,
+                      maxHoldTime != null ? maxHoldTime.longValue() : DEFAULT_MAX_HOLD_MILLIS));
+          break;
+        }
+
+      case "FirebaseDatabase#getPendingWrites":
+        {
+          FirebaseDatabase database = getDatabase(arguments);
+          result.success(getWriteQueue(database).getPendingCounts());
+          break;
+        }
+
+      case "FirebaseDatabase#multiGet":
+        {
+          FirebaseDatabase database = getDatabase(arguments);
+          @SuppressWarnings("unchecked")
+          List<String> paths = (List<String>) arguments.get("paths");
+          multiGet(database, paths, result);
+          break;
+        }
+
       case "DatabaseReference#set":
         {
+          FirebaseDatabase database = getDatabase(arguments);
+          String path = (String) arguments.get("path");
           Object value = arguments.get("value");
           Object priority = arguments.get("priority");
-          DatabaseReference reference = getReference(database, arguments);
-          if (priority != null) {
-            reference.setValue(value, priority, new DefaultCompletionListener(result));
-          } else {
-            reference.setValue(value, new DefaultCompletionListener(result));
-          }
+          getWriteQueue(database).set(path, value, priority, result);
           break;
         }
 
       case "DatabaseReference#update":
         {
+          FirebaseDatabase database = getDatabase(arguments);
           @SuppressWarnings("unchecked")
           Map<String, Object> value = (Map<String, Object>) arguments.get("value");
-          DatabaseReference reference = getReference(database, arguments);
-          reference.updateChildren(value, new DefaultCompletionListener(result));
+          getWriteQueue(database).update((String) arguments.get("path"), value, result);
           break;
         }
 
       case "DatabaseReference#setPriority":
         {
+          FirebaseDatabase database = getDatabase(arguments);
           Object priority = arguments.get("priority");
-          DatabaseReference reference = getReference(database, arguments);
-          reference.setPriority(priority, new DefaultCompletionListener(result));
+          getWriteQueue(database).setPriority((String) arguments.get("path"), priority, result);
           break;
         }
 
       case "DatabaseReference#runTransaction":
         {
-          final DatabaseReference reference = getReference(database, arguments);
-
-          // Initiate native transaction.
-          reference.runTransaction(
-              new Transaction.Handler() {
-                @Override
-                public Transaction.Result doTransaction(MutableData mutableData) {
-                  // Tasks are used to allow native execution of doTransaction to wait while Snapshot is
-                  // processed by logic on the Dart side.
-                  final TaskCompletionSource<Map<String, Object>> updateMutableDataTCS =
-                      new TaskCompletionSource<>();
-                  final Task<Map<String, Object>> updateMutableDataTCSTask =
-                      updateMutableDataTCS.getTask();
-
-                  Map<String, Object> doTransactionMap = new HashMap<>();
-                  doTransactionMap.put("transactionKey", arguments.get("transactionKey"));
-
-                  final Map<String, Object> snapshotMap = new HashMap<>();
-                  snapshotMap.put("key", mutableData.getKey());
-                  snapshotMap.put("value", mutableData.getValue());
-                  doTransactionMap.put("snapshot", snapshotMap);
-
-                  // Return snapshot to Dart side for update.
-                  channel.invokeMethod(
-                      "DoTransaction",
-                      doTransactionMap,
-                      new MethodChannel.Result() {
-                        @Override
-                        @SuppressWarnings("unchecked")
-                        public void success(Object result) {
-                          updateMutableDataTCS.setResult((Map<String, Object>) result);
-                        }
-
-                        @Override
-                        public void error(
-                            String errorCode, String errorMessage, Object errorDetails) {
-                          String exceptionMessage =
-                              "Error code: "
-                                  + errorCode
-                                  + "\nError message: "
-                                  + errorMessage
-                                  + "\nError details: "
-                                  + errorDetails;
-                          updateMutableDataTCS.setException(new Exception(exceptionMessage));
-                        }
-
-                        @Override
-                        public void notImplemented() {
-                          updateMutableDataTCS.setException(
-                              new Exception("DoTransaction not implemented on Dart side."));
-                        }
-                      });
-
-                  try {
-                    // Wait for updated snapshot from the Dart side.
-                    Map<String, Object> updatedSnapshotMap =
-                        Tasks.await(
-                            updateMutableDataTCSTask,
-                            (int) arguments.get("transactionTimeout"),
-                            TimeUnit.MILLISECONDS);
-                    // Set value of MutableData to value returned from the Dart side.
-                    mutableData.setValue(updatedSnapshotMap.get("value"));
-                  } catch (ExecutionException | InterruptedException | TimeoutException e) {
-                    Log.e(TAG, "Unable to commit Snapshot update. Transaction failed.", e);
-                    if (e instanceof TimeoutException) {
-                      Log.e(TAG, "Transaction at " + reference.toString() + " timed out.");
-                    }
-                    return Transaction.abort();
-                  }
-                  return Transaction.success(mutableData);
-                }
-
-                @Override
-                public void onComplete(
-                    DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
-                  Map<String, Object> completionMap = new HashMap<>();
-                  completionMap.put("transactionKey", arguments.get("transactionKey"));
-                  if (databaseError != null) {
-                    completionMap.put("error", asMap(databaseError));
-                  }
-                  completionMap.put("committed", committed);
-                  if (dataSnapshot != null) {
-                    Map<String, Object> snapshotMap = new HashMap<>();
-                    snapshotMap.put("key", dataSnapshot.getKey());
-                    snapshotMap.put("value", dataSnapshot.getValue());
-                    completionMap.put("snapshot", snapshotMap);
-                  }
-
-                  // Invoke transaction completion on the Dart side.
-                  result.success(completionMap);
-                }
-              });
+          FirebaseDatabase database = getDatabase(arguments);
+          // Held writes must reach the SDK before the transaction reads the current value.
+          getWriteQueue(database).flush();
+          DatabaseReference reference = getReference(database, arguments);
+          new TransactionRunner(reference, arguments, channel, mainHandler, result).run();
           break;
         }
 
       case "Query#keepSynced":
         {
           boolean value = (Boolean) arguments.get("value");
-          getQuery(database, arguments).keepSynced(value);
+          keepSyncedManager.keepSynced(QueryCache.keyOf(arguments), getQuery(arguments), value);
           result.success(null);
           break;
         }
 
       case "Query#observe":
         {
-          String eventType = (String) arguments.get("eventType");
+          @SuppressWarnings("unchecked")
+          List<String> eventTypes = (List<String>) arguments.get("eventTypes");
+          if (eventTypes == null) {
+            eventTypes = Collections.singletonList((String) arguments.get("eventType"));
+          }
+          Integer batchWindow = (Integer) arguments.get("batchWindow");
+          Integer maxDepth = (Integer) arguments.get("maxDepth");
           int handle = nextHandle++;
-          EventObserver observer = new EventObserver(eventType, handle);
+          EventObserver observer =
+              new EventObserver(
+                  eventTypes,
+                  handle,
+                  batchWindow != null ? batchWindow : -1,
+                  maxDepth != null ? maxDepth : SnapshotEncoder.UNLIMITED_DEPTH);
           observers.put(handle, observer);
-          if (eventType.equals(EVENT_TYPE_VALUE)) {
-            getQuery(database, arguments).addValueEventListener(observer);
-          } else {
-            getQuery(database, arguments).addChildEventListener(observer);
-          }
+          observer.addTo(QueryCache.keyOf(arguments), getQuery(arguments));
           result.success(handle);
           break;
         }
 
       case "Query#removeObserver":
         {
-          Query query = getQuery(database, arguments);
           int handle = (Integer) arguments.get("handle");
           EventObserver observer = observers.get(handle);
           if (observer != null) {
-            if (observer.requestedEventType.equals(EVENT_TYPE_VALUE)) {
-              query.removeEventListener((ValueEventListener) observer);
-            } else {
-              query.removeEventListener((ChildEventListener) observer);
-            }
+            observer.remove();
             observers.delete(handle);
             result.success(null);
             break;
@@ -457,6 +553,35 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
           }
         }
 
+      case "FirebaseDatabase#removeAllObservers":
+        {
+          removeAllObservers();
+          result.success(null);
+          break;
+        }
+
+      case "FirebaseDatabase#setKeepSyncedIdleTimeout":
+        {
+          Integer timeout = (Integer) arguments.get("timeout");
+          keepSyncedManager.setIdleTimeout(timeout != null ? timeout : -1);
+          result.success(null);
+          break;
+        }
+
+      case "FirebaseDatabase#getObserverStats":
+        {
+          Map<Integer, Object> observerStats = new HashMap<>();
+          for (int i = 0; i < observers.size(); i++) {
+            observerStats.put(observers.keyAt(i), observers.valueAt(i).getStats());
+          }
+          Map<String, Object> stats = new HashMap<>();
+          stats.put("liveObservers", observers.size());
+          stats.put("pausedKeepSyncedQueries", keepSyncedManager.getPausedCount());
+          stats.put("observers", observerStats);
+          result.success(stats);
+          break;
+        }
+
       default:
         {
           result.notImplemented();
@@ -465,7 +590,68 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
     }
   }
 
-  private static Map<String, Object> asMap(DatabaseError error) {
+  /**
+   * Reads the values at all {@code paths} at once, and replies with the snapshots by path when the
+   * last read completes, or with the first error.
+   *
+   * <p>The reply is the message encoded by {@link SnapshotEncoder#encodeToBytes}, so that the
+   * snapshots are written by walking their children rather than through getValue().
+   */
+  private static void multiGet(FirebaseDatabase database, List<String> paths, final Result result) {
+    final Map<String, Object> snapshots = new HashMap<>();
+    if (paths.isEmpty()) {
+      result.success(SnapshotEncoder.encodeToBytes(snapshots));
+      return;
+    }
+    final int[] remaining = {paths.size()};
+    final boolean[] failed = {false};
+    for (final String path : paths) {
+      database
+          .getReference(path)
+          .addListenerForSingleValueEvent(
+              new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                  Map<String, Object> snapshotMap = new HashMap<>();
+                  snapshotMap.put("key", snapshot.getKey());
+                  snapshotMap.put("value", snapshot);
+                  snapshots.put(path, snapshotMap);
+                  if (--remaining[0] == 0 && !failed[0]) {
+                    result.success(SnapshotEncoder.encodeToBytes(snapshots));
+                  }
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                  remaining[0]--;
+                  if (!failed[0]) {
+                    failed[0] = true;
+                    String message = "Error reading " + path + ": " + error.getMessage();
+                    result.error(String.valueOf(error.getCode()), message, error.getDetails());
+                  }
+                }
+              });
+    }
+  }
+
+  /**
+   * Removes every observer, e.g. once the Dart side that listened to them is gone, so that their
+   * queries stop syncing.
+   */
+  private void removeAllObservers() {
+    for (int i = 0; i < observers.size(); i++) {
+      observers.valueAt(i).remove();
+    }
+    observers.clear();
+  }
+
+  @Override
+  public boolean onViewDestroy(FlutterNativeView view) {
+    removeAllObservers();
+    return false;
+  }
+
+  static Map<String, Object> asMap(DatabaseError error) {
     Map<String, Object> map = new HashMap<>();
     map.put("code", error.getCode());
     map.put("message", error.getMessage());
@@ -0,0 +1,130 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import android.os.Handler;
+import com.google.firebase.database.Query;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the queries that the Dart side asked to keep synced and of how many observers
+ * each query has, so that queries that have had no observers for longer than an idle timeout stop
+ * being kept synced until an observer comes back.
+ *
+ * <p>Queries are identified by their {@link QueryCache#keyOf} key. Only used from the platform
+ * thread.
+ */
+final class KeepSyncedManager {
+  private final class Entry implements Runnable {
+    final Query query;
+    int observers = 0;
+    // Whether the Dart side asked for the query to be kept synced, and whether that is paused.
+    boolean keepSynced = false;
+    boolean paused = false;
+
+    Entry(Query query) {
+      this.query = query;
+    }
+
+    /** Pauses keeping the query synced, once it has been idle for the timeout. */
+    @Override
+    public void run() {
+      if (keepSynced && observers == 0 && !paused) {
+        paused = true;
+        query.keepSynced(false);
+      }
+    }
+  }
+
+  private final Handler handler;
+  private final Map<List<Object>, Entry> entries = new HashMap<>();
+  // Milliseconds after which idle queries stop being kept synced, or -1 to never stop.
+  private long idleTimeout = -1;
+
+  KeepSyncedManager(Handler handler) {
+    this.handler = handler;
+  }
+
+  /** Sets the idle timeout in milliseconds, or -1 to keep idle queries synced. */
+  void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    for (Entry entry : entries.values()) {
+      handler.removeCallbacks(entry);
+      if (idleTimeout < 0) {
+        resume(entry);
+      } else {
+        scheduleIfIdle(entry);
+      }
+    }
+  }
+
+  void keepSynced(List<Object> key, Query query, boolean value) {
+    Entry entry = getEntry(key, query);
+    handler.removeCallbacks(entry);
+    entry.keepSynced = value;
+    entry.paused = false;
+    query.keepSynced(value);
+    scheduleIfIdle(entry);
+    removeIfUnused(key, entry);
+  }
+
+  void onObserverAdded(List<Object> key, Query query) {
+    Entry entry = getEntry(key, query);
+    entry.observers++;
+    handler.removeCallbacks(entry);
+    resume(entry);
+  }
+
+  void onObserverRemoved(List<Object> key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return;
+    }
+    entry.observers--;
+    scheduleIfIdle(entry);
+    removeIfUnused(key, entry);
+  }
+
+  int getPausedCount() {
+    int count = 0;
+    for (Entry entry : entries.values()) {
+      if (entry.paused) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private Entry getEntry(List<Object> key, Query query) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(query);
+      entries.put(key, entry);
+    }
+    return entry;
+  }
+
+  private void resume(Entry entry) {
+    if (entry.paused) {
+      entry.paused = false;
+      entry.query.keepSynced(true);
+    }
+  }
+
+  private void scheduleIfIdle(Entry entry) {
+    if (idleTimeout >= 0 && entry.keepSynced && entry.observers == 0 && !entry.paused) {
+      handler.postDelayed(entry, idleTimeout);
+    }
+  }
+
+  private void removeIfUnused(List<Object> key, Entry entry) {
+    if (!entry.keepSynced && entry.observers == 0) {
+      handler.removeCallbacks(entry);
+      entries.remove(key);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import com.google.firebase.database.Query;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the queries built from the app, database URL, path and
+ * parameters of method calls, so that repeated calls on the same query do not rebuild it.
+ *
+ * <p>Only used from the platform thread.
+ */
+final class QueryCache {
+  /** Builds the query that the arguments of a method call describe. */
+  interface Builder {
+    Query build(Map<String, Object> arguments);
+  }
+
+  private final Builder builder;
+  // In access order, so that the eldest entry is the least recently used one. Keys are lists of
+  // the app, URL, path and parameters, which compare by content.
+  private final LinkedHashMap<List<Object>, Query> queries;
+
+  QueryCache(final int maxSize, Builder builder) {
+    this.builder = builder;
+    this.queries =
+        new LinkedHashMap<List<Object>, Query>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<List<Object>, Query> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  Query get(Map<String, Object> arguments) {
+    List<Object> key = keyOf(arguments);
+    Query query = queries.get(key);
+    if (query == null) {
+      query = builder.build(arguments);
+      queries.put(key, query);
+    }
+    return query;
+  }
+
+  /** Returns a key that is equal for the arguments of calls on the same query. */
+  static List<Object> keyOf(Map<String, Object> arguments) {
+    return Arrays.asList(
+        arguments.get("app"),
+        arguments.get("databaseURL"),
+        arguments.get("path"),
+        arguments.get("parameters"));
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import com.google.firebase.database.DataSnapshot;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes method calls in the {@link io.flutter.plugin.common.StandardMethodCodec} format straight
+ * into a direct {@link ByteBuffer}, writing {@link DataSnapshot} values by walking their children.
+ *
+ * <p>{@link DataSnapshot#getValue()} copies a whole subtree into nested maps and lists, which the
+ * codec then encodes; this encoder writes the same values without those intermediate collections.
+ * Below a depth limit, nodes that have children are written as {@code true}, like the {@code
+ * shallow} option of the Realtime Database REST API.
+ *
+ * <p>Instances are not thread safe; use one per message.
+ */
+final class SnapshotEncoder {
+  /** Depth limit that never cuts a snapshot short. */
+  static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+  private static final Charset UTF8 = Charset.forName("UTF8");
+  private static final int MIN_CAPACITY = 256;
+
+  private static final byte NULL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 6;
+  private static final byte STRING = 7;
+  private static final byte LIST = 12;
+  private static final byte MAP = 13;
+
+  private final int maxDepth;
+  private ByteBuffer buffer;
+
+  private SnapshotEncoder(int maxDepth, int sizeHint) {
+    this.maxDepth = maxDepth;
+    this.buffer = allocate(Math.max(MIN_CAPACITY, sizeHint));
+  }
+
+  /**
+   * Encodes a call to {@code method}, where the {@link DataSnapshot}s found in {@code arguments}
+   * stand for their values, cut off {@code maxDepth} levels below each snapshot.
+   *
+   * <p>The returned buffer's position is the length of the message, as expected by {@link
+   * io.flutter.plugin.common.BinaryMessenger#send}.
+   */
+  static ByteBuffer encodeMethodCall(String method, Object arguments, int maxDepth, int sizeHint) {
+    SnapshotEncoder encoder = new SnapshotEncoder(maxDepth, sizeHint);
+    encoder.writeValue(method);
+    encoder.writeValue(arguments);
+    return encoder.buffer;
+  }
+
+  /**
+   * Encodes {@code value} as a message, with the {@link DataSnapshot}s it contains written in
+   * full, and returns its bytes, to be sent as the reply to a method call.
+   */
+  static byte[] encodeToBytes(Object value) {
+    SnapshotEncoder encoder = new SnapshotEncoder(UNLIMITED_DEPTH, MIN_CAPACITY);
+    encoder.writeValue(value);
+    ByteBuffer buffer = encoder.buffer;
+    byte[] bytes = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (buffer.remaining() >= bytes) return;
+    ByteBuffer grown = allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    buffer.put((byte) value);
+  }
+
+  private void writeSize(int value) {
+    ensureCapacity(5);
+    if (value < 254) {
+      buffer.put((byte) value);
+    } else if (value <= 0xffff) {
+      buffer.put((byte) 254);
+      buffer.putChar((char) value);
+    } else {
+      buffer.put((byte) 255);
+      buffer.putInt(value);
+    }
+  }
+
+  private void writeAlignment(int alignment) {
+    int mod = buffer.position() % alignment;
+    if (mod != 0) {
+      ensureCapacity(alignment - mod);
+      for (int i = 0; i < alignment - mod; i++) {
+        buffer.put((byte) 0);
+      }
+    }
+  }
+
+  private void writeString(String value) {
+    byte[] bytes = value.getBytes(UTF8);
+    writeByte(STRING);
+    writeSize(bytes.length);
+    ensureCapacity(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private void writeValue(Object value) {
+    if (value == null) {
+      writeByte(NULL);
+    } else if (value instanceof Boolean) {
+      writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer) {
+      writeByte(INT);
+      ensureCapacity(4);
+      buffer.putInt((Integer) value);
+    } else if (value instanceof Long) {
+      writeByte(LONG);
+      ensureCapacity(8);
+      buffer.putLong((Long) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      writeByte(DOUBLE);
+      writeAlignment(8);
+      ensureCapacity(8);
+      buffer.putDouble(((Number) value).doubleValue());
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof DataSnapshot) {
+      writeSnapshot((DataSnapshot) value, maxDepth);
+    } else if (value instanceof List) {
+      writeByte(LIST);
+      List<?> list = (List<?>) value;
+      writeSize(list.size());
+      for (Object o : list) {
+        writeValue(o);
+      }
+    } else if (value instanceof Map) {
+      writeByte(MAP);
+      Map<?, ?> map = (Map<?, ?>) value;
+      writeSize(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    } else {
+      throw new IllegalArgumentException("Unsupported value: " + value);
+    }
+  }
+
+  /**
+   * Writes the value of {@code snapshot} as {@link DataSnapshot#getValue()} would return it: a
+   * node whose keys are mostly the indexes of an array becomes a list, with nulls in the gaps.
+   */
+  private void writeSnapshot(DataSnapshot snapshot, int depth) {
+    if (!snapshot.hasChildren()) {
+      writeValue(snapshot.getValue());
+      return;
+    }
+    if (depth <= 0) {
+      writeByte(TRUE);
+      return;
+    }
+    int count = (int) snapshot.getChildrenCount();
+    int maxIndex = getMaxArrayIndex(snapshot, count);
+    if (maxIndex >= 0) {
+      writeByte(LIST);
+      writeSize(maxIndex + 1);
+      // Looked up by index, since children may be iterated in query order.
+      for (int i = 0; i <= maxIndex; i++) {
+        writeSnapshot(snapshot.child(String.valueOf(i)), depth - 1);
+      }
+      return;
+    }
+    writeByte(MAP);
+    writeSize(count);
+    for (DataSnapshot child : snapshot.getChildren()) {
+      writeString(child.getKey());
+      writeSnapshot(child, depth - 1);
+    }
+  }
+
+  /**
+   * Returns the largest key of {@code snapshot} if its keys are all array indexes and fill more
+   * than half of the array, the same rule as the SDK's, or -1 otherwise.
+   */
+  private static int getMaxArrayIndex(DataSnapshot snapshot, int count) {
+    int maxIndex = -1;
+    for (DataSnapshot child : snapshot.getChildren()) {
+      int index = parseIndex(child.getKey());
+      if (index < 0) {
+        return -1;
+      }
+      maxIndex = Math.max(maxIndex, index);
+    }
+    return maxIndex < 2 * count ? maxIndex : -1;
+  }
+
+  /**
+   * Returns {@code key} as a non-negative int, or -1 if it is not one. Like the SDK, keys with a
+   * leading zero, such as {@code "01"}, are not indexes.
+   */
+  private static int parseIndex(String key) {
+    if (key.isEmpty() || key.length() > 10 || (key.length() > 1 && key.charAt(0) == '0')) {
+      return -1;
+    }
+    long index = 0;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      index = index * 10 + (c - '0');
+    }
+    return index <= Integer.MAX_VALUE ? (int) index : -1;
+  }
+}
@@ -0,0 +1,286 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import android.os.Handler;
+import android.util.Log;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a {@code DatabaseReference#runTransaction} call without blocking the Realtime Database run
+ * loop, which would stall every other listener and write of the app.
+ *
+ * <p>A declared {@code operation} is applied to the {@link MutableData} directly. A Dart update
+ * function is run optimistically instead: the current value is read by a transaction that aborts,
+ * the Dart side computes the new value meanwhile, and a further transaction only commits it if the
+ * value is still the one that it was computed from. Otherwise the Dart side is asked again, as the
+ * SDK itself would do.
+ *
+ * <p>Only used from the platform thread, except for {@code doTransaction}.
+ */
+final class TransactionRunner {
+  private static final String TAG = "TransactionRunner";
+  // As many attempts as the SDK makes before giving up.
+  private static final int MAX_ATTEMPTS = 25;
+  private static final List<String> OPERATIONS =
+      Arrays.asList("increment", "append", "setIfAbsent", "max", "min");
+
+  private final DatabaseReference reference;
+  private final Map<String, Object> arguments;
+  private final MethodChannel channel;
+  private final Handler mainHandler;
+  private final Result result;
+  private int attempts = 0;
+  // Incremented for every request to the Dart side, so that late replies can be told apart.
+  private int request = 0;
+  // The value that the Dart side computed its update from, and the update. Read by doTransaction.
+  private volatile Object expectedValue;
+  private volatile Object updatedValue;
+  private volatile boolean hasUpdate = false;
+  // Fails the pending request to the Dart side if it takes too long.
+  private Runnable timeout;
+
+  TransactionRunner(
+      DatabaseReference reference,
+      Map<String, Object> arguments,
+      MethodChannel channel,
+      Handler mainHandler,
+      Result result) {
+    this.reference = reference;
+    this.arguments = arguments;
+    this.channel = channel;
+    this.mainHandler = mainHandler;
+    this.result = result;
+  }
+
+  void run() {
+    @SuppressWarnings("unchecked")
+    final Map<String, Object> operation = (Map<String, Object>) arguments.get("operation");
+    if (operation == null) {
+      reference.runTransaction(compareAndSet);
+      return;
+    }
+    if (!OPERATIONS.contains(operation.get("type"))) {
+      result.error("unknown_operation", "Unknown transaction operation", operation.get("type"));
+      return;
+    }
+    reference.runTransaction(
+        new Transaction.Handler() {
+          @Override
+          public Transaction.Result doTransaction(MutableData mutableData) {
+            return apply(operation, mutableData);
+          }
+
+          @Override
+          public void onComplete(
+              DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+            complete(databaseError, committed, dataSnapshot);
+          }
+        });
+  }
+
+  private final Transaction.Handler compareAndSet =
+      new Transaction.Handler() {
+        @Override
+        public Transaction.Result doTransaction(MutableData mutableData) {
+          Object currentValue = mutableData.getValue();
+          if (hasUpdate
+              && (expectedValue == null
+                  ? currentValue == null
+                  : expectedValue.equals(currentValue))) {
+            mutableData.setValue(updatedValue);
+            return Transaction.success(mutableData);
+          }
+          // Ends this attempt right away, so that the run loop can go on while Dart computes the
+          // update from the current value.
+          return Transaction.abort();
+        }
+
+        @Override
+        public void onComplete(
+            DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+          if (databaseError != null || committed) {
+            complete(databaseError, committed, dataSnapshot);
+            return;
+          }
+          if (++attempts >= MAX_ATTEMPTS) {
+            complete(DatabaseError.fromCode(DatabaseError.MAX_RETRIES), false, dataSnapshot);
+            return;
+          }
+          requestUpdate(dataSnapshot);
+        }
+      };
+
+  /** Asks the Dart side for the new value of {@code snapshot}, then tries to commit it. */
+  private void requestUpdate(final DataSnapshot snapshot) {
+    final int currentRequest = ++request;
+    Map<String, Object> doTransactionMap = new HashMap<>();
+    doTransactionMap.put("transactionKey", arguments.get("transactionKey"));
+    doTransactionMap.put("snapshot", asMap(snapshot));
+    channel.invokeMethod(
+        "DoTransaction",
+        doTransactionMap,
+        new MethodChannel.Result() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public void success(Object result) {
+            if (currentRequest != request) {
+              return;
+            }
+            request++;
+            mainHandler.removeCallbacks(timeout);
+            expectedValue = snapshot.getValue();
+            updatedValue = ((Map<String, Object>) result).get("value");
+            hasUpdate = true;
+            reference.runTransaction(compareAndSet);
+          }
+
+          @Override
+          public void error(String errorCode, String errorMessage, Object errorDetails) {
+            fail(
+                currentRequest,
+                snapshot,
+                "Error code: "
+                    + errorCode
+                    + "\nError message: "
+                    + errorMessage
+                    + "\nError details: "
+                    + errorDetails);
+          }
+
+          @Override
+          public void notImplemented() {
+            fail(currentRequest, snapshot, "DoTransaction not implemented on Dart side.");
+          }
+        });
+    timeout =
+        new Runnable() {
+          @Override
+          public void run() {
+            fail(
+                currentRequest,
+                snapshot,
+                "Transaction at " + reference.toString() + " timed out.");
+          }
+        };
+    mainHandler.postDelayed(timeout, (int) arguments.get("transactionTimeout"));
+  }
+
+  private void fail(int failedRequest, DataSnapshot snapshot, String message) {
+    if (failedRequest != request) {
+      return;
+    }
+    request++;
+    mainHandler.removeCallbacks(timeout);
+    Log.e(TAG, "Unable to commit Snapshot update. Transaction failed.\n" + message);
+    complete(null, false, snapshot);
+  }
+
+  private void complete(DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+    Map<String, Object> completionMap = new HashMap<>();
+    completionMap.put("transactionKey", arguments.get("transactionKey"));
+    if (databaseError != null) {
+      completionMap.put("error", FirebaseDatabasePlugin.asMap(databaseError));
+    }
+    completionMap.put("committed", committed);
+    if (dataSnapshot != null) {
+      completionMap.put("snapshot", asMap(dataSnapshot));
+    }
+    result.success(completionMap);
+  }
+
+  private static Map<String, Object> asMap(DataSnapshot snapshot) {
+    Map<String, Object> snapshotMap = new HashMap<>();
+    snapshotMap.put("key", snapshot.getKey());
+    snapshotMap.put("value", snapshot.getValue());
+    return snapshotMap;
+  }
+
+  /**
+   * Applies a declared operation to {@code mutableData}, aborting if the current value does not
+   * have the type that the operation needs.
+   */
+  static Transaction.Result apply(Map<String, Object> operation, MutableData mutableData) {
+    Object value = operation.get("value");
+    Object currentValue = mutableData.getValue();
+    switch ((String) operation.get("type")) {
+      case "increment":
+        if (currentValue != null && !(currentValue instanceof Number)) {
+          return Transaction.abort();
+        }
+        mutableData.setValue(add((Number) currentValue, (Number) value));
+        break;
+      case "append":
+        {
+          if (currentValue != null && !(currentValue instanceof List)) {
+            return Transaction.abort();
+          }
+          List<Object> list = new ArrayList<>();
+          if (currentValue != null) {
+            list.addAll((List<?>) currentValue);
+          }
+          list.add(value);
+          mutableData.setValue(list);
+          break;
+        }
+      case "setIfAbsent":
+        if (currentValue != null) {
+          return Transaction.abort();
+        }
+        mutableData.setValue(value);
+        break;
+      case "max":
+      case "min":
+        {
+          if (currentValue != null && !(currentValue instanceof Number)) {
+            return Transaction.abort();
+          }
+          // Equal values are left as they are, even if one is an int and the other a double.
+          if (currentValue == null) {
+            mutableData.setValue(value);
+          } else {
+            int comparison = compare((Number) value, (Number) currentValue);
+            if ("max".equals(operation.get("type")) ? comparison > 0 : comparison < 0) {
+              mutableData.setValue(value);
+            }
+          }
+          break;
+        }
+    }
+    return Transaction.success(mutableData);
+  }
+
+  private static Number add(Number a, Number b) {
+    if (a == null) {
+      return b;
+    }
+    if (isIntegral(a) && isIntegral(b)) {
+      return a.longValue() + b.longValue();
+    }
+    return a.doubleValue() + b.doubleValue();
+  }
+
+  private static int compare(Number a, Number b) {
+    if (isIntegral(a) && isIntegral(b)) {
+      return Long.compare(a.longValue(), b.longValue());
+    }
+    return Double.compare(a.doubleValue(), b.doubleValue());
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Integer || number instanceof Long;
+  }
+}
@@ -0,0 +1,323 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import android.os.Handler;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the writes of one database to the SDK, counting by path the writes that the server has
+ * not acknowledged yet, and optionally coalescing writes while the database is offline.
+ *
+ * <p>With coalescing enabled, writes made while the database is disconnected are held back, and
+ * later sets and updates of the same path are folded into them, so that the SDK queues one write
+ * per path instead of one per call. Held writes are sent as soon as the database connects, before
+ * any write that they cannot be reordered with, and at the latest when the oldest of them has been
+ * held for the maximum hold time. Listeners do not see them until then.
+ *
+ * <p>Held writes only live in this object, so they are lost if the app stops before they are
+ * sent. Coalescing is therefore refused for databases with persistence enabled, whose writes are
+ * otherwise expected to survive a restart.
+ *
+ * <p>Only used from the platform thread.
+ */
+final class WriteQueue implements ValueEventListener {
+  private static final class HeldWrite {
+    final String path;
+    // Whether the write is a set of the value, or an update of the children in the value.
+    boolean isSet;
+    Object value;
+    final List<Result> results = new ArrayList<>();
+
+    HeldWrite(String path, boolean isSet, Object value) {
+      this.path = path;
+      this.isSet = isSet;
+      this.value = value;
+    }
+  }
+
+  private final FirebaseDatabase database;
+  private final Handler handler;
+  // Writes sent to the SDK or held, and not acknowledged yet, by path.
+  private final Map<String, Integer> pendingCounts = new HashMap<>();
+  // Held writes by path, in the order they were first made.
+  private final LinkedHashMap<String, HeldWrite> heldWrites = new LinkedHashMap<>();
+  // Listened to while coalescing is enabled.
+  private DatabaseReference connectedReference;
+  private boolean connected = true;
+  private boolean persistenceEnabled = false;
+  private long maxHoldMillis;
+
+  private final Runnable flushHeldWrites =
+      new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      };
+
+  WriteQueue(FirebaseDatabase database, Handler handler) {
+    this.database = database;
+    this.handler = handler;
+  }
+
+  /** Records whether the database persists its writes, which rules out coalescing. */
+  void setPersistenceEnabled(boolean enabled) {
+    persistenceEnabled = enabled;
+  }
+
+  /**
+   * Enables or disables coalescing, holding writes for at most {@code maxHoldMillis}. Returns
+   * false, and leaves coalescing disabled, if persistence is enabled.
+   */
+  boolean setCoalescing(boolean enabled, long maxHoldMillis) {
+    if (enabled && persistenceEnabled) {
+      return false;
+    }
+    this.maxHoldMillis = maxHoldMillis;
+    if (enabled == (connectedReference != null)) {
+      return true;
+    }
+    if (enabled) {
+      connectedReference = database.getReference(".info/connected");
+      connectedReference.addValueEventListener(this);
+    } else {
+      connectedReference.removeEventListener(this);
+      connectedReference = null;
+      connected = true;
+      flush();
+    }
+    return true;
+  }
+
+  void set(String path, Object value, Object priority, Result result) {
+    if (priority != null || !isHolding()) {
+      flush();
+      count(path, 1);
+      DatabaseReference reference = getReference(path);
+      DatabaseReference.CompletionListener listener = onComplete(result, path);
+      if (priority != null) {
+        reference.setValue(value, priority, listener);
+      } else {
+        reference.setValue(value, listener);
+      }
+      return;
+    }
+    hold(path, true, value, result);
+  }
+
+  void update(String path, Map<String, Object> children, Result result) {
+    if (!isHolding()) {
+      count(path, 1);
+      getReference(path).updateChildren(children, onComplete(result, path));
+      return;
+    }
+    hold(path, false, children, result);
+  }
+
+  void setPriority(String path, Object priority, Result result) {
+    flush();
+    count(path, 1);
+    getReference(path).setPriority(priority, onComplete(result, path));
+  }
+
+  /** Sets every path of {@code values}, relative to the root, in one multi-location update. */
+  void multiSet(Map<String, Object> values, Result result) {
+    flush();
+    String[] paths = values.keySet().toArray(new String[values.size()]);
+    for (String path : paths) {
+      count(path, 1);
+    }
+    database.getReference().updateChildren(values, onComplete(result, paths));
+  }
+
+  /** Sends the held writes to the SDK, in the order they were first made. */
+  void flush() {
+    if (heldWrites.isEmpty()) {
+      return;
+    }
+    handler.removeCallbacks(flushHeldWrites);
+    List<HeldWrite> writes = new ArrayList<>(heldWrites.values());
+    heldWrites.clear();
+    for (HeldWrite write : writes) {
+      DatabaseReference.CompletionListener listener =
+          onComplete(write.results, Collections.nCopies(write.results.size(), write.path));
+      if (write.isSet) {
+        getReference(write.path).setValue(write.value, listener);
+      } else {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> children = (Map<String, Object>) write.value;
+        getReference(write.path).updateChildren(children, listener);
+      }
+    }
+  }
+
+  /** Fails the held writes, as the SDK does with its own on purgeOutstandingWrites. */
+  void purge() {
+    handler.removeCallbacks(flushHeldWrites);
+    for (HeldWrite write : heldWrites.values()) {
+      count(write.path, -write.results.size());
+      for (Result result : write.results) {
+        result.error("-25", "The write was canceled by the user.", null);
+      }
+    }
+    heldWrites.clear();
+  }
+
+  Map<String, Integer> getPendingCounts() {
+    return new HashMap<>(pendingCounts);
+  }
+
+  @Override
+  public void onDataChange(DataSnapshot snapshot) {
+    connected = Boolean.TRUE.equals(snapshot.getValue());
+    if (connected) {
+      flush();
+    }
+  }
+
+  @Override
+  public void onCancelled(DatabaseError error) {}
+
+  private boolean isHolding() {
+    return connectedReference != null && !connected;
+  }
+
+  private void hold(String path, boolean isSet, Object value, Result result) {
+    HeldWrite write = heldWrites.get(path);
+    if (write != null && !fold(write, isSet, value)) {
+      flush();
+      write = null;
+    }
+    if (write == null) {
+      if (overlapsHeldWrite(path)) {
+        flush();
+      }
+      write = new HeldWrite(path, isSet, value);
+      if (heldWrites.isEmpty()) {
+        handler.postDelayed(flushHeldWrites, maxHoldMillis);
+      }
+      heldWrites.put(path, write);
+    }
+    write.results.add(result);
+    count(path, 1);
+  }
+
+  /** Folds a later write of the same path into {@code write}, if they can be combined. */
+  @SuppressWarnings("unchecked")
+  private static boolean fold(HeldWrite write, boolean isSet, Object value) {
+    if (isSet) {
+      write.isSet = true;
+      write.value = value;
+      return true;
+    }
+    Map<String, Object> children = (Map<String, Object>) value;
+    if (write.isSet) {
+      Map<String, Object> data =
+          write.value instanceof Map
+              ? (Map<String, Object>) write.value
+              : new HashMap<String, Object>();
+      for (Map.Entry<String, Object> child : children.entrySet()) {
+        put(data, child.getKey().split("/"), child.getValue());
+      }
+      write.value = data;
+    } else {
+      Map<String, Object> heldChildren = (Map<String, Object>) write.value;
+      // The SDK rejects updates where one path is inside another.
+      for (String key : children.keySet()) {
+        for (String heldKey : heldChildren.keySet()) {
+          if (!key.equals(heldKey) && (contains(key, heldKey) || contains(heldKey, key))) {
+            return false;
+          }
+        }
+      }
+      heldChildren.putAll(children);
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void put(Map<String, Object> data, String[] path, Object value) {
+    Map<String, Object> parent = data;
+    for (int i = 0; i < path.length - 1; i++) {
+      Object child = parent.get(path[i]);
+      if (!(child instanceof Map)) {
+        child = new HashMap<String, Object>();
+        parent.put(path[i], child);
+      }
+      parent = (Map<String, Object>) child;
+    }
+    if (value == null) {
+      parent.remove(path[path.length - 1]);
+    } else {
+      parent.put(path[path.length - 1], value);
+    }
+  }
+
+  private boolean overlapsHeldWrite(String path) {
+    for (String heldPath : heldWrites.keySet()) {
+      if (contains(heldPath, path) || contains(path, heldPath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns whether {@code path} is strictly inside {@code parent}. */
+  private static boolean contains(String parent, String path) {
+    return parent.isEmpty() ? !path.isEmpty() : path.startsWith(parent + "/");
+  }
+
+  private DatabaseReference getReference(String path) {
+    DatabaseReference reference = database.getReference();
+    return path != null ? reference.child(path) : reference;
+  }
+
+  private void count(String path, int delta) {
+    Integer count = pendingCounts.get(path);
+    int updated = (count != null ? count : 0) + delta;
+    if (updated > 0) {
+      pendingCounts.put(path, updated);
+    } else {
+      pendingCounts.remove(path);
+    }
+  }
+
+  private DatabaseReference.CompletionListener onComplete(Result result, String... paths) {
+    return onComplete(Collections.singletonList(result), Arrays.asList(paths));
+  }
+
+  /** Reports the completion of a write to all of its results, and uncounts its paths. */
+  private DatabaseReference.CompletionListener onComplete(
+      final List<Result> results, final List<String> paths) {
+    return new DatabaseReference.CompletionListener() {
+      @Override
+      public void onComplete(DatabaseError error, DatabaseReference ref) {
+        for (String path : paths) {
+          count(path, -1);
+        }
+        for (Result result : results) {
+          if (error != null) {
+            result.error(String.valueOf(error.getCode()), error.getMessage(), error.getDetails());
+          } else {
+            result.success(null);
+          }
+        }
+      }
+    };
+  }
+}
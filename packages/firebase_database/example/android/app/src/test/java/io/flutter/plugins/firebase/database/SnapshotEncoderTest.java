@@ -0,0 +1,151 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.firebase.database.DataSnapshot;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMessageCodec;
+import io.flutter.plugin.common.StandardMethodCodec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Decodes the output of {@link SnapshotEncoder} with {@link StandardMethodCodec} and compares it
+ * with what {@link DataSnapshot#getValue()} returns for the same tree of mocked snapshots.
+ */
+public class SnapshotEncoderTest {
+  @Test
+  public void mapsKeepTheirKeys() {
+    DataSnapshot snapshot =
+        node(null, leaf("name", "Ada"), leaf("born", 1815L), leaf("admin", true));
+    Map<String, Object> value = new HashMap<>();
+    value.put("name", "Ada");
+    value.put("born", 1815L);
+    value.put("admin", true);
+    assertEncodes(value, snapshot, SnapshotEncoder.UNLIMITED_DEPTH);
+  }
+
+  @Test
+  public void sparseArraysHaveNullsInTheGaps() {
+    DataSnapshot snapshot = node(null, leaf("3", "d"), leaf("0", "a"), leaf("2", "c"));
+    assertEncodes(Arrays.asList("a", null, "c", "d"), snapshot, SnapshotEncoder.UNLIMITED_DEPTH);
+  }
+
+  @Test
+  public void tooSparseArraysAreMaps() {
+    DataSnapshot snapshot = node(null, leaf("0", "a"), leaf("5", "f"));
+    Map<String, Object> value = new HashMap<>();
+    value.put("0", "a");
+    value.put("5", "f");
+    assertEncodes(value, snapshot, SnapshotEncoder.UNLIMITED_DEPTH);
+  }
+
+  @Test
+  public void zeroPaddedKeysAreNotIndexes() {
+    DataSnapshot snapshot = node(null, leaf("0", "a"), leaf("01", "b"));
+    Map<String, Object> value = new HashMap<>();
+    value.put("0", "a");
+    value.put("01", "b");
+    assertEncodes(value, snapshot, SnapshotEncoder.UNLIMITED_DEPTH);
+
+    snapshot = node(null, leaf("00", "a"));
+    value = new HashMap<>();
+    value.put("00", "a");
+    assertEncodes(value, snapshot, SnapshotEncoder.UNLIMITED_DEPTH);
+  }
+
+  @Test
+  public void doublesAreAlignedAfterOtherValues() {
+    DataSnapshot snapshot =
+        node(
+            null,
+            leaf("a", "x"),
+            leaf("pi", 3.14159),
+            node("values", leaf("0", 1.5), leaf("1", 2L), leaf("2", -0.25)));
+    Map<String, Object> value = new HashMap<>();
+    value.put("a", "x");
+    value.put("pi", 3.14159);
+    value.put("values", Arrays.<Object>asList(1.5, 2L, -0.25));
+    assertEncodes(value, snapshot, SnapshotEncoder.UNLIMITED_DEPTH);
+  }
+
+  @Test
+  public void nodesBelowTheDepthLimitAreTrue() {
+    DataSnapshot snapshot =
+        node(
+            null,
+            node("user", leaf("name", "Ada")),
+            leaf("count", 2L),
+            node("list", leaf("0", 1L)));
+    Map<String, Object> value = new HashMap<>();
+    value.put("user", true);
+    value.put("count", 2L);
+    value.put("list", true);
+    assertEncodes(value, snapshot, 1);
+    assertEncodes(true, snapshot, 0);
+    assertEncodes("leaf", leaf("key", "leaf"), 0);
+  }
+
+  @Test
+  public void repliesHoldSnapshotsInFull() {
+    Map<String, Object> snapshotMap = new HashMap<>();
+    snapshotMap.put("key", "users");
+    snapshotMap.put("value", node("users", node("ada", leaf("born", 1815L))));
+    Map<String, Object> reply = new HashMap<>();
+    reply.put("users", snapshotMap);
+
+    Map<String, Object> user = new HashMap<>();
+    user.put("born", 1815L);
+    Map<String, Object> users = new HashMap<>();
+    users.put("ada", user);
+    Map<String, Object> value = new HashMap<>();
+    value.put("key", "users");
+    value.put("value", users);
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("users", value);
+
+    byte[] encoded = SnapshotEncoder.encodeToBytes(reply);
+    assertEquals(
+        expected, StandardMessageCodec.INSTANCE.decodeMessage(ByteBuffer.wrap(encoded)));
+  }
+
+  private static void assertEncodes(Object value, DataSnapshot snapshot, int maxDepth) {
+    ByteBuffer message = SnapshotEncoder.encodeMethodCall("Event", snapshot, maxDepth, 0);
+    message.flip();
+    MethodCall call = StandardMethodCodec.INSTANCE.decodeMethodCall(message);
+    assertEquals("Event", call.method);
+    assertEquals(value, call.arguments);
+  }
+
+  private static DataSnapshot leaf(String key, Object value) {
+    DataSnapshot snapshot = mock(DataSnapshot.class);
+    when(snapshot.getKey()).thenReturn(key);
+    when(snapshot.getValue()).thenReturn(value);
+    return snapshot;
+  }
+
+  private static DataSnapshot node(String key, DataSnapshot... children) {
+    DataSnapshot snapshot = mock(DataSnapshot.class);
+    when(snapshot.getKey()).thenReturn(key);
+    when(snapshot.hasChildren()).thenReturn(true);
+    when(snapshot.getChildrenCount()).thenReturn((long) children.length);
+    when(snapshot.getChildren()).thenReturn(Arrays.asList(children));
+    // Missing children are empty snapshots, whose value is null.
+    when(snapshot.child(anyString())).thenReturn(mock(DataSnapshot.class));
+    for (DataSnapshot child : children) {
+      String childKey = child.getKey();
+      when(snapshot.child(childKey)).thenReturn(child);
+    }
+    return snapshot;
+  }
+}
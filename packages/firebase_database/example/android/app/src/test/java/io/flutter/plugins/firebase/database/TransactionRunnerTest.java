@@ -0,0 +1,117 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class TransactionRunnerTest {
+  @Test
+  public void incrementAddsIntegersAsLongs() {
+    MutableData data = mutableData(5);
+    assertTrue(TransactionRunner.apply(operation("increment", 2), data).isSuccess());
+    verify(data).setValue(7L);
+  }
+
+  @Test
+  public void incrementMixesIntegersAndDoubles() {
+    MutableData data = mutableData(5);
+    assertTrue(TransactionRunner.apply(operation("increment", 2.5), data).isSuccess());
+    verify(data).setValue(7.5);
+
+    data = mutableData(1.5);
+    assertTrue(TransactionRunner.apply(operation("increment", 2L), data).isSuccess());
+    verify(data).setValue(3.5);
+  }
+
+  @Test
+  public void incrementStartsFromMissingValue() {
+    MutableData data = mutableData(null);
+    assertTrue(TransactionRunner.apply(operation("increment", 3), data).isSuccess());
+    verify(data).setValue(3);
+  }
+
+  @Test
+  public void incrementAbortsOnNonNumber() {
+    MutableData data = mutableData("five");
+    assertFalse(TransactionRunner.apply(operation("increment", 1), data).isSuccess());
+    verify(data, never()).setValue(any());
+  }
+
+  @Test
+  public void appendAddsToList() {
+    MutableData data = mutableData(Arrays.asList("a", "b"));
+    assertTrue(TransactionRunner.apply(operation("append", "c"), data).isSuccess());
+    verify(data).setValue(Arrays.asList("a", "b", "c"));
+  }
+
+  @Test
+  public void appendAbortsOnNonList() {
+    Map<String, Object> map = new HashMap<>();
+    map.put("0", "a");
+    MutableData data = mutableData(map);
+    assertFalse(TransactionRunner.apply(operation("append", "b"), data).isSuccess());
+    verify(data, never()).setValue(any());
+
+    data = mutableData("a");
+    assertFalse(TransactionRunner.apply(operation("append", "b"), data).isSuccess());
+    verify(data, never()).setValue(any());
+  }
+
+  @Test
+  public void maxAndMinKeepEqualValues() {
+    MutableData data = mutableData(3L);
+    assertTrue(TransactionRunner.apply(operation("max", 3.0), data).isSuccess());
+    assertTrue(TransactionRunner.apply(operation("min", 3.0), data).isSuccess());
+    assertTrue(TransactionRunner.apply(operation("max", 3), data).isSuccess());
+    assertTrue(TransactionRunner.apply(operation("min", 3), data).isSuccess());
+    verify(data, never()).setValue(any());
+  }
+
+  @Test
+  public void maxAndMinReplaceOnlyInTheirDirection() {
+    MutableData data = mutableData(3L);
+    TransactionRunner.apply(operation("max", 2.5), data);
+    TransactionRunner.apply(operation("min", 4), data);
+    verify(data, never()).setValue(any());
+
+    TransactionRunner.apply(operation("max", 3.5), data);
+    verify(data).setValue(3.5);
+    TransactionRunner.apply(operation("min", 2), data);
+    verify(data).setValue(2);
+  }
+
+  @Test
+  public void setIfAbsentAbortsOnExistingValue() {
+    MutableData data = mutableData(0);
+    assertFalse(TransactionRunner.apply(operation("setIfAbsent", 1), data).isSuccess());
+    verify(data, never()).setValue(any());
+  }
+
+  private static MutableData mutableData(Object value) {
+    MutableData data = mock(MutableData.class);
+    when(data.getValue()).thenReturn(value);
+    return data;
+  }
+
+  private static Map<String, Object> operation(String type, Object value) {
+    Map<String, Object> operation = new HashMap<>();
+    operation.put("type", type);
+    operation.put("value", value);
+    return operation;
+  }
+}
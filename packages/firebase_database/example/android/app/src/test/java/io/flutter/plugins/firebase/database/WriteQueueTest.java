@@ -0,0 +1,196 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.Handler;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class WriteQueueTest {
+  private static final long MAX_HOLD_MILLIS = 1000;
+
+  private FirebaseDatabase database;
+  private DatabaseReference root;
+  private Handler handler;
+  private WriteQueue queue;
+  private final Map<String, DatabaseReference> references = new HashMap<>();
+
+  @Before
+  public void setUp() {
+    database = mock(FirebaseDatabase.class);
+    root = mock(DatabaseReference.class);
+    when(database.getReference()).thenReturn(root);
+    when(root.child(anyString()))
+        .thenAnswer(
+            new Answer<DatabaseReference>() {
+              @Override
+              public DatabaseReference answer(InvocationOnMock invocation) {
+                return reference((String) invocation.getArgument(0));
+              }
+            });
+    when(database.getReference(".info/connected")).thenReturn(mock(DatabaseReference.class));
+    handler = mock(Handler.class);
+    queue = new WriteQueue(database, handler);
+  }
+
+  @Test
+  public void updateIsMergedIntoHeldSet() {
+    goOffline();
+    Map<String, Object> user = new HashMap<>();
+    user.put("name", "Ada");
+    user.put("born", 1815);
+    Result setResult = mock(Result.class);
+    Result updateResult = mock(Result.class);
+    queue.set("users/ada", user, null, setResult);
+    Map<String, Object> update = new HashMap<>();
+    update.put("born", 1816);
+    update.put("address/city", "London");
+    queue.update("users/ada", update, updateResult);
+    assertEquals(Collections.singletonMap("users/ada", 2), queue.getPendingCounts());
+
+    goOnline();
+    Map<String, Object> merged = new HashMap<>();
+    merged.put("name", "Ada");
+    merged.put("born", 1816);
+    merged.put("address", Collections.singletonMap("city", "London"));
+    ArgumentCaptor<DatabaseReference.CompletionListener> listener =
+        ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+    verify(reference("users/ada")).setValue(eq(merged), listener.capture());
+    verify(reference("users/ada"), never()).updateChildren(anyMap(), any());
+
+    listener.getValue().onComplete(null, reference("users/ada"));
+    verify(setResult).success(null);
+    verify(updateResult).success(null);
+    assertTrue(queue.getPendingCounts().isEmpty());
+  }
+
+  @Test
+  public void conflictingUpdatesAreNotMerged() {
+    goOffline();
+    Map<String, Object> first = new HashMap<>();
+    first.put("ada", 1);
+    queue.update("users", first, mock(Result.class));
+    Map<String, Object> second = new HashMap<>();
+    second.put("ada/born", 1815);
+    queue.update("users", second, mock(Result.class));
+
+    // The first update is sent as it is, so that the second one can be held in its place.
+    verify(reference("users")).updateChildren(eq(first), any());
+    verify(reference("users"), never()).updateChildren(eq(second), any());
+    assertEquals(Collections.singletonMap("users", 2), queue.getPendingCounts());
+
+    goOnline();
+    verify(reference("users")).updateChildren(eq(second), any());
+  }
+
+  @Test
+  public void writeOfParentPathSendsHeldWrites() {
+    goOffline();
+    queue.set("users/ada/born", 1815, null, mock(Result.class));
+    verify(reference("users/ada/born"), never()).setValue(any(), any());
+
+    Map<String, Object> users = Collections.<String, Object>singletonMap("ada", "Ada");
+    queue.set("users", users, null, mock(Result.class));
+    verify(reference("users/ada/born")).setValue(eq(1815), any());
+    verify(reference("users"), never()).setValue(any(), any());
+
+    goOnline();
+    verify(reference("users")).setValue(eq(users), any());
+  }
+
+  @Test
+  public void purgeFailsAndUncountsHeldWrites() {
+    goOffline();
+    Result first = mock(Result.class);
+    Result second = mock(Result.class);
+    Result third = mock(Result.class);
+    queue.set("a", 1, null, first);
+    queue.set("a", 2, null, second);
+    queue.update("b", Collections.<String, Object>singletonMap("c", 3), third);
+    Map<String, Integer> counts = new HashMap<>();
+    counts.put("a", 2);
+    counts.put("b", 1);
+    assertEquals(counts, queue.getPendingCounts());
+
+    queue.purge();
+    assertTrue(queue.getPendingCounts().isEmpty());
+    for (Result result : new Result[] {first, second, third}) {
+      verify(result).error("-25", "The write was canceled by the user.", null);
+    }
+
+    goOnline();
+    verify(reference("a"), never()).setValue(any(), any());
+    verify(reference("b"), never()).updateChildren(anyMap(), any());
+  }
+
+  @Test
+  public void heldWritesAreSentAfterMaxHoldTime() {
+    goOffline();
+    queue.set("a", 1, null, mock(Result.class));
+    ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+    verify(handler).postDelayed(timeout.capture(), eq(MAX_HOLD_MILLIS));
+    verify(reference("a"), never()).setValue(any(), any());
+
+    timeout.getValue().run();
+    verify(reference("a")).setValue(eq(1), any());
+  }
+
+  @Test
+  public void coalescingIsRefusedWithPersistence() {
+    queue.setPersistenceEnabled(true);
+    assertFalse(queue.setCoalescing(true, MAX_HOLD_MILLIS));
+    verify(database, never()).getReference(".info/connected");
+
+    queue.set("a", 1, null, mock(Result.class));
+    verify(reference("a")).setValue(eq(1), any());
+  }
+
+  private void goOffline() {
+    assertTrue(queue.setCoalescing(true, MAX_HOLD_MILLIS));
+    queue.onDataChange(connectedSnapshot(false));
+  }
+
+  private void goOnline() {
+    queue.onDataChange(connectedSnapshot(true));
+  }
+
+  private static DataSnapshot connectedSnapshot(boolean connected) {
+    DataSnapshot snapshot = mock(DataSnapshot.class);
+    when(snapshot.getValue()).thenReturn(connected);
+    return snapshot;
+  }
+
+  /** Returns the reference that the queue gets from {@code root.child(path)}. */
+  private DatabaseReference reference(String path) {
+    DatabaseReference reference = references.get(path);
+    if (reference == null) {
+      reference = mock(DatabaseReference.class);
+      references.put(path, reference);
+    }
+    return reference;
+  }
+}
@@ -144,6 +144,10 @@ class DatabaseReference extends Query {
 
   /// Performs an optimistic-concurrency transactional update to the data at
   /// this Firebase Database location.
+  ///
+  /// On Android, [transactionHandler] is called with the current value while
+  /// the database goes on with other work, and its result is only committed
+  /// if the value has not changed meanwhile. It is called again otherwise.
   Future<TransactionResult> runTransaction(
       TransactionHandler transactionHandler,
       {Duration timeout: const Duration(seconds: 5)}) async {
@@ -184,6 +188,60 @@ class DatabaseReference extends Query {
 
     return completer.future;
   }
+
+  /// Transactionally applies [operation] to the data at this location.
+  ///
+  /// Unlike [runTransaction], the update runs on the platform side, without
+  /// calling back into Dart. The transaction is not committed if the data has
+  /// the wrong type for the operation, or if there is data for
+  /// [TransactionOperation.setIfAbsent]. Only supported on Android.
+  Future<TransactionResult> runTransactionOperation(
+      TransactionOperation operation) async {
+    final Map<dynamic, dynamic> result = await _database._channel
+        .invokeMethod('DatabaseReference#runTransaction', <String, dynamic>{
+      'app': _database.app?.name,
+      'databaseURL': _database.databaseURL,
+      'path': path,
+      'operation': operation._toMap(),
+    });
+    final dynamic error = result['error'];
+    final dynamic snapshot = result['snapshot'];
+    return new TransactionResult._(
+      error != null ? new DatabaseError._(error) : null,
+      result['committed'],
+      snapshot != null ? new DataSnapshot._(snapshot) : null,
+    );
+  }
+}
+
+/// An update for [DatabaseReference.runTransactionOperation].
+class TransactionOperation {
+  const TransactionOperation._(this._type, this._value);
+
+  /// Adds [delta] to the number at the location, or sets it if there is none.
+  const TransactionOperation.increment(num delta) : this._('increment', delta);
+
+  /// Adds [value] at the end of the list at the location, or creates the list
+  /// if there is none.
+  const TransactionOperation.append(dynamic value) : this._('append', value);
+
+  /// Sets [value] if there is no data at the location.
+  const TransactionOperation.setIfAbsent(dynamic value)
+      : this._('setIfAbsent', value);
+
+  /// Sets [value] if it is greater than the number at the location, or if
+  /// there is none.
+  const TransactionOperation.max(num value) : this._('max', value);
+
+  /// Sets [value] if it is less than the number at the location, or if there
+  /// is none.
+  const TransactionOperation.min(num value) : this._('min', value);
+
+  final String _type;
+  final dynamic _value;
+
+  Map<String, dynamic> _toMap() =>
+      <String, dynamic>{'type': _type, 'value': _value};
 }
 
 class ServerValue {
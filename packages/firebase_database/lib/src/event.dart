@@ -12,6 +12,22 @@ enum _EventType {
   value,
 }
 
+/// The kinds of child events that [Query.onChildEvents] can listen to.
+enum ChildEventType {
+  added,
+  removed,
+  changed,
+  moved,
+}
+
+const Map<ChildEventType, _EventType> _childEventTypes =
+    const <ChildEventType, _EventType>{
+  ChildEventType.added: _EventType.childAdded,
+  ChildEventType.removed: _EventType.childRemoved,
+  ChildEventType.changed: _EventType.childChanged,
+  ChildEventType.moved: _EventType.childMoved,
+};
+
 /// `Event` encapsulates a DataSnapshot and possibly also the key of its
 /// previous sibling, which can be used to order the snapshots.
 class Event {
@@ -20,6 +36,16 @@ class Event {
 
   final DataSnapshot snapshot;
   String get previousSiblingKey => _data['previousSiblingKey'];
+
+  /// The kind of child event, for events of [Query.onChildEvents] that
+  /// listen to more than one kind. Null otherwise.
+  ChildEventType get type {
+    final String eventType = _data['eventType'];
+    for (ChildEventType type in _childEventTypes.keys) {
+      if (_childEventTypes[type].toString() == eventType) return type;
+    }
+    return null;
+  }
 }
 
 /// A DataSnapshot contains data from a Firebase Database location.
@@ -31,6 +31,13 @@ class FirebaseDatabase {
           final Event event = new Event._(call.arguments);
           _observers[call.arguments['handle']].add(event);
           return null;
+        case 'Events':
+          final StreamController<Event> controller =
+              _observers[call.arguments['handle']];
+          for (dynamic event in call.arguments['events']) {
+            controller.add(new Event._(event));
+          }
+          return null;
         case 'Error':
           final DatabaseError error =
               new DatabaseError._(call.arguments['error']);
@@ -49,6 +56,12 @@ class FirebaseDatabase {
       }
     });
     _initialized = true;
+    // Observers of a previous isolate, e.g. before a hot restart, have nobody
+    // listening to them any more. Not every platform supports this.
+    _channel.invokeMethod(
+      'FirebaseDatabase#removeAllObservers',
+      <String, dynamic>{'app': app?.name, 'databaseURL': databaseURL},
+    ).catchError((dynamic error) {});
   }
 
   static FirebaseDatabase _instance = new FirebaseDatabase();
@@ -128,6 +141,129 @@ class FirebaseDatabase {
     return result;
   }
 
+  /// Sets the value of every path in [values] atomically.
+  ///
+  /// Paths are relative to the root of the database. All of them are written
+  /// in one message and one multi-location update, which is much cheaper than
+  /// calling [DatabaseReference.set] for each. Only supported on Android.
+  Future<void> multiSet(Map<String, dynamic> values) {
+    return _channel.invokeMethod(
+      'FirebaseDatabase#multiSet',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+        'values': values,
+      },
+    );
+  }
+
+  /// Reads the values at all [paths] concurrently, and returns their
+  /// snapshots by path.
+  ///
+  /// Fails with the first error of any of the reads. Only supported on
+  /// Android.
+  Future<Map<String, DataSnapshot>> multiGet(List<String> paths) async {
+    // Android encodes the snapshots itself, without copying them into maps
+    // and lists first.
+    final Uint8List encoded = await _channel.invokeMethod(
+      'FirebaseDatabase#multiGet',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+        'paths': paths,
+      },
+    );
+    final Map<dynamic, dynamic> snapshots = const StandardMessageCodec()
+        .decodeMessage(encoded.buffer
+            .asByteData(encoded.offsetInBytes, encoded.lengthInBytes));
+    final Map<String, DataSnapshot> result = <String, DataSnapshot>{};
+    snapshots.forEach((dynamic path, dynamic snapshot) {
+      result[path] = new DataSnapshot._(snapshot);
+    });
+    return result;
+  }
+
+  /// Returns, by path, the number of writes made through this instance that
+  /// the server has not acknowledged yet.
+  ///
+  /// Counts the sets, updates and priority changes of [DatabaseReference], and
+  /// each path of [multiSet]. Writes made before the app was restarted are not
+  /// counted, even when persistence replays them. Only supported on Android.
+  Future<Map<String, int>> getPendingWrites() async {
+    final Map<dynamic, dynamic> counts = await _channel.invokeMethod(
+      'FirebaseDatabase#getPendingWrites',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+      },
+    );
+    return counts?.cast<String, int>() ?? <String, int>{};
+  }
+
+  /// Folds the writes made while offline into one write per path.
+  ///
+  /// While enabled and disconnected from the server, [DatabaseReference.set]
+  /// and [DatabaseReference.update] calls are held back, and later calls for
+  /// the same path are merged into them, so that only one write per path is
+  /// sent when the connection comes back, or once the oldest held write has
+  /// waited for [maxHoldTime]. Held writes are not seen by listeners until
+  /// then, and their futures complete together when the merged write does.
+  /// Writes with a priority, transactions and calls that touch a path inside
+  /// another held path first send the held writes as they are.
+  ///
+  /// Held writes are only kept in memory, and are lost if the app is stopped
+  /// before they are sent. Coalescing is therefore not available when
+  /// [setPersistenceEnabled] has enabled persistence: the returned future
+  /// completes with false in that case, and with true otherwise. Only
+  /// supported on Android.
+  Future<bool> setWriteCoalescing(bool enabled,
+      {Duration maxHoldTime: const Duration(seconds: 5)}) async {
+    final bool result = await _channel.invokeMethod(
+      'FirebaseDatabase#setWriteCoalescing',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+        'enabled': enabled,
+        'maxHoldTime': maxHoldTime.inMilliseconds,
+      },
+    );
+    return result;
+  }
+
+  /// Stops keeping queries synced while they have had no listeners for longer
+  /// than [timeout], until they are listened to again.
+  ///
+  /// Applies to the queries of [Query.keepSynced], which are otherwise kept
+  /// synced until told not to, whether anything listens to them or not. Pass
+  /// null to keep them synced all the time again. Only supported on Android.
+  Future<void> setKeepSyncedIdleTimeout(Duration timeout) {
+    return _channel.invokeMethod(
+      'FirebaseDatabase#setKeepSyncedIdleTimeout',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+        'timeout': timeout?.inMilliseconds,
+      },
+    );
+  }
+
+  /// Returns the number of `liveObservers` on the platform side, the number
+  /// of `pausedKeepSyncedQueries`, and under `observers`, the `path`,
+  /// `eventTypes`, number of `events` and `eventsPerSecond` of each observer.
+  ///
+  /// Meant for finding listeners that are left behind. Only supported on
+  /// Android.
+  Future<Map<String, dynamic>> getObserverStats() async {
+    final Map<dynamic, dynamic> stats = await _channel.invokeMethod(
+      'FirebaseDatabase#getObserverStats',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+      },
+    );
+    return stats?.cast<String, dynamic>() ?? <String, dynamic>{};
+  }
+
   /// Resumes our connection to the Firebase Database backend after a previous
   /// [goOffline] call.
   Future<void> goOnline() {
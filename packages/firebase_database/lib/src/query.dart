@@ -9,16 +9,22 @@ class Query {
   Query._(
       {@required FirebaseDatabase database,
       @required List<String> pathComponents,
-      Map<String, dynamic> parameters})
+      Map<String, dynamic> parameters,
+      Duration batchWindow,
+      int maxDepth})
       : _database = database,
         _pathComponents = pathComponents,
         _parameters = parameters ??
             new Map<String, dynamic>.unmodifiable(<String, dynamic>{}),
+        _batchWindow = batchWindow,
+        _maxDepth = maxDepth,
         assert(database != null);
 
   final FirebaseDatabase _database;
   final List<String> _pathComponents;
   final Map<String, dynamic> _parameters;
+  final Duration _batchWindow;
+  final int _maxDepth;
 
   /// Slash-delimited path representing the database location of this query.
   String get path => _pathComponents.join('/');
@@ -30,6 +36,8 @@ class Query {
       parameters: new Map<String, dynamic>.unmodifiable(
         new Map<String, dynamic>.from(_parameters)..addAll(parameters),
       ),
+      batchWindow: _batchWindow,
+      maxDepth: _maxDepth,
     );
   }
 
@@ -40,23 +48,38 @@ class Query {
       });
   }
 
-  Stream<Event> _observe(_EventType eventType) {
+  Stream<Event> _observe(_EventType eventType) =>
+      _observeAll(<_EventType>[eventType]);
+
+  Stream<Event> _observeAll(List<_EventType> eventTypes) {
     Future<int> _handle;
     // It's fine to let the StreamController be garbage collected once all the
     // subscribers have cancelled; this analyzer warning is safe to ignore.
     StreamController<Event> controller; // ignore: close_sinks
     controller = new StreamController<Event>.broadcast(
       onListen: () {
-        _handle = _database._channel.invokeMethod(
-          'Query#observe',
-          <String, dynamic>{
-            'app': _database.app?.name,
-            'databaseURL': _database.databaseURL,
-            'path': path,
-            'parameters': _parameters,
-            'eventType': eventType.toString(),
-          },
-        ).then<int>((dynamic result) => result);
+        final Map<String, dynamic> arguments = <String, dynamic>{
+          'app': _database.app?.name,
+          'databaseURL': _database.databaseURL,
+          'path': path,
+          'parameters': _parameters,
+        };
+        if (eventTypes.length == 1) {
+          arguments['eventType'] = eventTypes.single.toString();
+        } else {
+          arguments['eventTypes'] = eventTypes
+              .map((_EventType eventType) => eventType.toString())
+              .toList();
+        }
+        if (_batchWindow != null) {
+          arguments['batchWindow'] = _batchWindow.inMilliseconds;
+        }
+        if (_maxDepth != null) {
+          arguments['maxDepth'] = _maxDepth;
+        }
+        _handle = _database._channel
+            .invokeMethod('Query#observe', arguments)
+            .then<int>((dynamic result) => result);
         _handle.then((int handle) {
           FirebaseDatabase._observers[handle] = controller;
         });
@@ -80,6 +103,43 @@ class Query {
     return controller.stream;
   }
 
+  /// Returns a query whose listeners receive their events in batches.
+  ///
+  /// Events that the platform receives within [window] of the first one, or
+  /// during the same turn of its main loop if [window] is zero, are sent to
+  /// Dart together in one message. The streams still deliver one [Event] at a
+  /// time, in the same order, so this only saves per-message overhead, e.g.
+  /// when [onChildAdded] first delivers a long list. Only supported on
+  /// Android.
+  Query withEventBatching({Duration window: Duration.zero}) {
+    assert(window != null);
+    return new Query._(
+      database: _database,
+      pathComponents: _pathComponents,
+      parameters: _parameters,
+      batchWindow: window,
+      maxDepth: _maxDepth,
+    );
+  }
+
+  /// Returns a query whose events only contain the first [depth] levels of
+  /// children of their snapshots.
+  ///
+  /// Deeper children that have children of their own are replaced by `true`,
+  /// like with the `shallow` option of the REST API, so that e.g. a list
+  /// screen gets the keys and primitive values of its items without their
+  /// whole subtrees. Only supported on Android.
+  Query shallow({int depth: 1}) {
+    assert(depth != null && depth >= 0);
+    return new Query._(
+      database: _database,
+      pathComponents: _pathComponents,
+      parameters: _parameters,
+      batchWindow: _batchWindow,
+      maxDepth: depth,
+    );
+  }
+
   /// Listens for a single value event and then stops listening.
   Future<DataSnapshot> once() async => (await onValue.first).snapshot;
 
@@ -95,6 +155,20 @@ class Query {
   /// Fires when children are moved.
   Stream<Event> get onChildMoved => _observe(_EventType.childMoved);
 
+  /// Fires when children have any of the given [types] of events.
+  ///
+  /// Unlike listening to [onChildAdded], [onChildChanged] and so on
+  /// separately, this registers a single listener with the platform SDK.
+  /// [Event.type] tells which kind of event each one is. Only supported on
+  /// Android.
+  Stream<Event> onChildEvents(List<ChildEventType> types) {
+    assert(types.isNotEmpty);
+    return _observeAll(types
+        .toSet()
+        .map((ChildEventType type) => _childEventTypes[type])
+        .toList());
+  }
+
   /// Fires when the data at this location is updated. `previousChildKey` is null.
   Stream<Event> get onValue => _observe(_EventType.value);
 
@@ -3,6 +3,7 @@
 // found in the LICENSE file.
 
 import 'dart:async';
+import 'dart:typed_data';
 
 import 'package:firebase_core/firebase_core.dart';
 import 'package:firebase_database/firebase_database.dart';
@@ -34,7 +35,30 @@ void main() {
             return true;
           case 'FirebaseDatabase#setPersistenceCacheSizeBytes':
             return true;
+          case 'FirebaseDatabase#setWriteCoalescing':
+            return true;
+          case 'FirebaseDatabase#getObserverStats':
+            return <String, dynamic>{
+              'liveObservers': 2,
+              'pausedKeepSyncedQueries': 1,
+            };
+          case 'FirebaseDatabase#getPendingWrites':
+            return <String, dynamic>{'users/a': 2};
+          case 'FirebaseDatabase#multiGet':
+            final ByteData encoded =
+                const StandardMessageCodec().encodeMessage(<String, dynamic>{
+              'users/a': <String, dynamic>{'key': 'a', 'value': 1},
+              'users/b': <String, dynamic>{'key': 'b', 'value': null},
+            });
+            return encoded.buffer
+                .asUint8List(encoded.offsetInBytes, encoded.lengthInBytes);
           case 'DatabaseReference#runTransaction':
+            if (methodCall.arguments['operation'] != null) {
+              return <String, dynamic>{
+                'committed': true,
+                'snapshot': <String, dynamic>{'key': 'count', 'value': 3},
+              };
+            }
             Map<String, dynamic> updatedValue;
             Future<Null> simulateEvent(
                 int transactionKey, final MutableData mutableData) async {
@@ -125,6 +149,115 @@ void main() {
       );
     });
 
+    test('multiSet', () async {
+      await database.multiSet(<String, dynamic>{'users/a': 1, 'users/b': 2});
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'FirebaseDatabase#multiSet',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'values': <String, dynamic>{'users/a': 1, 'users/b': 2},
+            },
+          ),
+        ],
+      );
+    });
+
+    test('multiGet', () async {
+      final Map<String, DataSnapshot> snapshots =
+          await database.multiGet(<String>['users/a', 'users/b']);
+      expect(snapshots['users/a'].value, 1);
+      expect(snapshots['users/b'].key, 'b');
+      expect(snapshots['users/b'].value, isNull);
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'FirebaseDatabase#multiGet',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'paths': <String>['users/a', 'users/b'],
+            },
+          ),
+        ],
+      );
+    });
+
+    test('setKeepSyncedIdleTimeout', () async {
+      await database.setKeepSyncedIdleTimeout(const Duration(minutes: 1));
+      await database.setKeepSyncedIdleTimeout(null);
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'FirebaseDatabase#setKeepSyncedIdleTimeout',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'timeout': 60000,
+            },
+          ),
+          isMethodCall(
+            'FirebaseDatabase#setKeepSyncedIdleTimeout',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'timeout': null,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('getPendingWrites', () async {
+      final Map<String, int> counts = await database.getPendingWrites();
+      expect(counts, <String, int>{'users/a': 2});
+    });
+
+    test('setWriteCoalescing', () async {
+      expect(await database.setWriteCoalescing(true), true);
+      expect(
+        await database.setWriteCoalescing(
+          true,
+          maxHoldTime: const Duration(seconds: 30),
+        ),
+        true,
+      );
+      expect(
+        log,
+        <Matcher>[
+          isMethodCall(
+            'FirebaseDatabase#setWriteCoalescing',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'enabled': true,
+              'maxHoldTime': 5000,
+            },
+          ),
+          isMethodCall(
+            'FirebaseDatabase#setWriteCoalescing',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'enabled': true,
+              'maxHoldTime': 30000,
+            },
+          ),
+        ],
+      );
+    });
+
+    test('getObserverStats', () async {
+      final Map<String, dynamic> stats = await database.getObserverStats();
+      expect(stats['liveObservers'], 2);
+      expect(stats['pausedKeepSyncedQueries'], 1);
+    });
+
     test('goOnline', () async {
       await database.goOnline();
       expect(
@@ -280,6 +413,34 @@ void main() {
           throwsA(const isInstanceOf<AssertionError>()),
         );
       });
+
+      test('runTransactionOperation', () async {
+        final TransactionResult transactionResult = await database
+            .reference()
+            .child('count')
+            .runTransactionOperation(
+                const TransactionOperation.increment(1));
+        expect(
+          log,
+          <Matcher>[
+            isMethodCall(
+              'DatabaseReference#runTransaction',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'databaseURL': databaseURL,
+                'path': 'count',
+                'operation': <String, dynamic>{
+                  'type': 'increment',
+                  'value': 1,
+                },
+              },
+            ),
+          ],
+        );
+        expect(transactionResult.committed, isTrue);
+        expect(transactionResult.error, isNull);
+        expect(transactionResult.dataSnapshot.value, equals(3));
+      });
     });
 
     group('$Query', () {
@@ -448,6 +609,129 @@ void main() {
           ],
         );
       });
+      test('observing batched child events', () async {
+        mockHandleId = 42;
+        final String path = 'items';
+        final Query query = database
+            .reference()
+            .child(path)
+            .withEventBatching(window: const Duration(milliseconds: 10));
+        final AsyncQueue<Event> events = new AsyncQueue<Event>();
+
+        // Subscribe and allow subscription to complete.
+        final StreamSubscription<Event> subscription =
+            query.onChildAdded.listen(events.add);
+        await new Future<Null>.delayed(const Duration(seconds: 0));
+
+        await BinaryMessages.handlePlatformMessage(
+          channel.name,
+          channel.codec.encodeMethodCall(
+            new MethodCall('Events', <String, dynamic>{
+              'handle': 42,
+              'events': <dynamic>[
+                <String, dynamic>{
+                  'snapshot': <String, dynamic>{'key': 'a', 'value': 1},
+                  'previousSiblingKey': null,
+                },
+                <String, dynamic>{
+                  'snapshot': <String, dynamic>{'key': 'b', 'value': 2},
+                  'previousSiblingKey': 'a',
+                },
+              ],
+            }),
+          ),
+          (_) {},
+        );
+        final Event event1 = await events.remove();
+        final Event event2 = await events.remove();
+        expect(event1.snapshot.key, 'a');
+        expect(event2.snapshot.key, 'b');
+        expect(event2.previousSiblingKey, 'a');
+        subscription.cancel();
+
+        expect(
+          log.first,
+          isMethodCall(
+            'Query#observe',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'path': path,
+              'parameters': <String, dynamic>{},
+              'eventType': '_EventType.childAdded',
+              'batchWindow': 10,
+            },
+          ),
+        );
+      });
+      test('observing shallow value events', () async {
+        mockHandleId = 45;
+        final Query query = database.reference().child('items').shallow();
+        final StreamSubscription<Event> subscription =
+            query.onValue.listen((_) {});
+        await new Future<Null>.delayed(const Duration(seconds: 0));
+        subscription.cancel();
+
+        expect(
+          log.first,
+          isMethodCall(
+            'Query#observe',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'path': 'items',
+              'parameters': <String, dynamic>{},
+              'eventType': '_EventType.value',
+              'maxDepth': 1,
+            },
+          ),
+        );
+      });
+      test('observing several kinds of child events', () async {
+        mockHandleId = 51;
+        final String path = 'items';
+        final Query query = database.reference().child(path);
+        final AsyncQueue<Event> events = new AsyncQueue<Event>();
+
+        // Subscribe and allow subscription to complete.
+        final StreamSubscription<Event> subscription = query.onChildEvents(
+          <ChildEventType>[ChildEventType.added, ChildEventType.removed],
+        ).listen(events.add);
+        await new Future<Null>.delayed(const Duration(seconds: 0));
+
+        await BinaryMessages.handlePlatformMessage(
+          channel.name,
+          channel.codec.encodeMethodCall(
+            new MethodCall('Event', <String, dynamic>{
+              'handle': 51,
+              'eventType': '_EventType.childRemoved',
+              'snapshot': <String, dynamic>{'key': 'a', 'value': 1},
+            }),
+          ),
+          (_) {},
+        );
+        final Event event = await events.remove();
+        expect(event.snapshot.key, 'a');
+        expect(event.type, ChildEventType.removed);
+        subscription.cancel();
+
+        expect(
+          log.first,
+          isMethodCall(
+            'Query#observe',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'path': path,
+              'parameters': <String, dynamic>{},
+              'eventTypes': <String>[
+                '_EventType.childAdded',
+                '_EventType.childRemoved',
+              ],
+            },
+          ),
+        );
+      });
     });
   });
 }